@@ -32,6 +32,17 @@ public class AstPrinter implements Expr.Visitor<String> {
 		return parenthesize(expr, "group", expr.expression);
 	}
 
+	@Override
+	public String visitInterpolationExpr(final Expr.Interpolation expr) {
+		final StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < expr.expressions.size(); i++) {
+			builder.append('"').append(expr.strings.get(i)).append("\" ");
+			builder.append(expr.expressions.get(i).accept(this)).append(' ');
+		}
+		builder.append('"').append(expr.strings.get(expr.expressions.size())).append("\" ");
+		return builder.append("interpolate").toString();
+	}
+
 	@Override
 	public String visitLiteralExpr(Literal expr) {
 		if (expr.value == null) return "nil";
@@ -0,0 +1,243 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the syntax trees written by {@link AstWriter}, already resolved, so
+ * that the program can run without scanning, parsing and resolving the source
+ * again.
+ */
+public class AstReader {
+	private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+	private final ByteBuffer buffer;
+	private final String[] strings;
+
+	public AstReader(final ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+
+		if (buffer.remaining() < 8 || buffer.getInt() != AstWriter.MAGIC || buffer.getInt() != AstWriter.FORMAT) {
+			throw new IOException("Not a compiled Lox program.");
+		}
+
+		strings = new String[readVarInt()];
+		for (int i = 0; i < strings.length; i++) {
+			final byte[] utf8 = new byte[readVarInt()];
+			buffer.get(utf8);
+			strings[i] = new String(utf8, StandardCharsets.UTF_8);
+		}
+	}
+
+	public List<Stmt> readStatements() {
+		final int size = readVarInt();
+		final List<Stmt> statements = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			statements.add(readStmt());
+		}
+		return statements;
+	}
+
+	private int readVarInt() {
+		return readVarInt(buffer);
+	}
+
+	static int readVarInt(final ByteBuffer buffer) {
+		int value = 0;
+		for (int shift = 0;; shift += 7) {
+			final byte b = buffer.get();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+	}
+
+	private String readString() {
+		return strings[readVarInt()];
+	}
+
+	private Token readToken() {
+		final TokenType type = TOKEN_TYPES[readVarInt()];
+		final String lexeme = isName(type) ? Symbols.intern(readString()) : readString();
+		return new Token(type, lexeme, null, readVarInt());
+	}
+
+	// The lexemes the environments are keyed by, see Symbols.
+	private static boolean isName(final TokenType type) {
+		return type == TokenType.IDENTIFIER || type == TokenType.THIS || type == TokenType.SUPER;
+	}
+
+	private List<Token> readTokens() {
+		final int size = readVarInt();
+		final List<Token> tokens = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			tokens.add(readToken());
+		}
+		return tokens;
+	}
+
+	private int readDepth() {
+		return readVarInt() - 1;
+	}
+
+	private Object readValue() {
+		switch (readVarInt()) {
+		case AstWriter.VALUE_NIL: return null;
+		case AstWriter.VALUE_FALSE: return false;
+		case AstWriter.VALUE_TRUE: return true;
+		case AstWriter.VALUE_NUMBER: return buffer.getDouble();
+		case AstWriter.VALUE_STRING: return readString();
+		default: throw new IllegalStateException("Corrupted literal value.");
+		}
+	}
+
+	private List<Expr> readExprs() {
+		final int size = readVarInt();
+		final List<Expr> exprs = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			exprs.add(readExpr());
+		}
+		return exprs;
+	}
+
+	private Expr readExpr() {
+		final int tag = readVarInt();
+		switch (tag) {
+		case AstWriter.NONE:
+			return null;
+		case AstWriter.EXPR_ASSIGN: {
+			final Expr.Assign assign = new Expr.Assign(readToken(), readExpr());
+			assign.depth = readDepth();
+			return assign;
+		}
+		case AstWriter.EXPR_BINARY: {
+			final Expr left = readExpr();
+			final Token operator = readToken();
+			final Expr.Binary binary = new Expr.Binary(left, operator, readExpr());
+			binary.numeric = readVarInt() != 0;
+			return binary;
+		}
+		case AstWriter.EXPR_CALL: {
+			final Expr callee = readExpr();
+			final Token paren = readToken();
+			final Expr.Call call = new Expr.Call(callee, paren, readExprs());
+			call.tail = readVarInt() != 0;
+			return call;
+		}
+		case AstWriter.EXPR_GET: {
+			final Expr object = readExpr();
+			return new Expr.Get(object, readToken());
+		}
+		case AstWriter.EXPR_GROUPING:
+			return new Expr.Grouping(readExpr());
+		case AstWriter.EXPR_INTERPOLATION: {
+			final int size = readVarInt();
+			final List<String> strings = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				strings.add(readString());
+			}
+			return new Expr.Interpolation(strings, readExprs());
+		}
+		case AstWriter.EXPR_LITERAL:
+			return new Expr.Literal(readValue());
+		case AstWriter.EXPR_LOGICAL: {
+			final Expr left = readExpr();
+			final Token operator = readToken();
+			return new Expr.Logical(left, operator, readExpr());
+		}
+		case AstWriter.EXPR_SET: {
+			final Expr object = readExpr();
+			final Token name = readToken();
+			return new Expr.Set(object, name, readExpr());
+		}
+		case AstWriter.EXPR_SUPER: {
+			final Token keyword = readToken();
+			final Expr.Super expr = new Expr.Super(keyword, readToken());
+			expr.depth = readDepth();
+			return expr;
+		}
+		case AstWriter.EXPR_THIS: {
+			final Expr.This expr = new Expr.This(readToken());
+			expr.depth = readDepth();
+			return expr;
+		}
+		case AstWriter.EXPR_UNARY: {
+			final Token operator = readToken();
+			return new Expr.Unary(operator, readExpr());
+		}
+		case AstWriter.EXPR_VARIABLE: {
+			final Expr.Variable expr = new Expr.Variable(readToken());
+			expr.depth = readDepth();
+			expr.counter = readVarInt() - 1;
+			return expr;
+		}
+		default:
+			throw new IllegalStateException("Corrupted expression tag " + tag + ".");
+		}
+	}
+
+	public Stmt.Function readFunction() {
+		final Token name = readToken();
+		final List<Token> params = readTokens();
+		return new Stmt.Function(name, params, readStatements());
+	}
+
+	public Stmt readStmt() {
+		final int tag = readVarInt();
+		switch (tag) {
+		case AstWriter.NONE:
+			return null;
+		case AstWriter.STMT_BLOCK:
+			return new Stmt.Block(readStatements());
+		case AstWriter.STMT_CLASS: {
+			final Token name = readToken();
+			final Expr.Variable superclass = (Expr.Variable) readExpr();
+			final int size = readVarInt();
+			final List<Stmt.Function> methods = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				methods.add(readFunction());
+			}
+			return new Stmt.Class(name, superclass, methods);
+		}
+		case AstWriter.STMT_EXPRESSION:
+			return new Stmt.Expression(readExpr());
+		case AstWriter.STMT_FUNCTION:
+			return readFunction();
+		case AstWriter.STMT_IF: {
+			final Expr condition = readExpr();
+			final Stmt thenBranch = readStmt();
+			return new Stmt.If(condition, thenBranch, readStmt());
+		}
+		case AstWriter.STMT_PRINT:
+			return new Stmt.Print(readExpr());
+		case AstWriter.STMT_RETURN: {
+			final Token keyword = readToken();
+			return new Stmt.Return(keyword, readExpr());
+		}
+		case AstWriter.STMT_VAR: {
+			final Token name = readToken();
+			return new Stmt.Var(name, readExpr());
+		}
+		case AstWriter.STMT_WHILE: {
+			final Token keyword = readToken();
+			final Expr condition = readExpr();
+			return new Stmt.While(keyword, condition, readStmt());
+		}
+		case AstWriter.STMT_COUNTED_LOOP: {
+			final Stmt.Var initializer = (Stmt.Var) readStmt();
+			final Expr.Binary condition = (Expr.Binary) readExpr();
+			final Expr.Assign increment = (Expr.Assign) readExpr();
+			final Stmt.CountedLoop loop = new Stmt.CountedLoop(initializer, condition, increment, readStmt());
+			final int flags = readVarInt();
+			loop.counted = (flags & 1) != 0;
+			loop.flat = (flags & 2) != 0;
+			loop.shared = (flags & 4) != 0;
+			return loop;
+		}
+		default:
+			throw new IllegalStateException("Corrupted statement tag " + tag + ".");
+		}
+	}
+}
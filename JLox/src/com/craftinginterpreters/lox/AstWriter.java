@@ -0,0 +1,422 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.craftinginterpreters.lox.Expr.Assign;
+import com.craftinginterpreters.lox.Expr.Binary;
+import com.craftinginterpreters.lox.Expr.Call;
+import com.craftinginterpreters.lox.Expr.Get;
+import com.craftinginterpreters.lox.Expr.Grouping;
+import com.craftinginterpreters.lox.Expr.Literal;
+import com.craftinginterpreters.lox.Expr.Logical;
+import com.craftinginterpreters.lox.Expr.Set;
+import com.craftinginterpreters.lox.Expr.Super;
+import com.craftinginterpreters.lox.Expr.This;
+import com.craftinginterpreters.lox.Expr.Unary;
+import com.craftinginterpreters.lox.Expr.Variable;
+import com.craftinginterpreters.lox.Stmt.Block;
+import com.craftinginterpreters.lox.Stmt.Class;
+import com.craftinginterpreters.lox.Stmt.Expression;
+import com.craftinginterpreters.lox.Stmt.Function;
+import com.craftinginterpreters.lox.Stmt.If;
+import com.craftinginterpreters.lox.Stmt.Print;
+import com.craftinginterpreters.lox.Stmt.Return;
+import com.craftinginterpreters.lox.Stmt.Var;
+import com.craftinginterpreters.lox.Stmt.While;
+
+/**
+ * Writes resolved syntax trees in a compact binary form which is read back by
+ * {@link AstReader}.
+ *
+ * Every lexeme and string literal is stored once in a string table written in
+ * front of the nodes, and nodes refer to it by index. Variables, assignments,
+ * 'this' and 'super' carry the depth computed by the {@link Resolver}, and
+ * variables the counted loop whose counter they read.
+ */
+public class AstWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+	static final int MAGIC = 0x4c4f5841; // "LOXA"
+	static final int FORMAT = 7;
+
+	// Tags of the nodes, 0 stands for a missing node.
+	static final int NONE = 0;
+	static final int EXPR_ASSIGN = 1;
+	static final int EXPR_BINARY = 2;
+	static final int EXPR_CALL = 3;
+	static final int EXPR_GET = 4;
+	static final int EXPR_GROUPING = 5;
+	static final int EXPR_LITERAL = 6;
+	static final int EXPR_LOGICAL = 7;
+	static final int EXPR_SET = 8;
+	static final int EXPR_SUPER = 9;
+	static final int EXPR_THIS = 10;
+	static final int EXPR_UNARY = 11;
+	static final int EXPR_VARIABLE = 12;
+	static final int EXPR_INTERPOLATION = 13;
+	static final int STMT_BLOCK = 32;
+	static final int STMT_CLASS = 33;
+	static final int STMT_EXPRESSION = 34;
+	static final int STMT_FUNCTION = 35;
+	static final int STMT_IF = 36;
+	static final int STMT_PRINT = 37;
+	static final int STMT_RETURN = 38;
+	static final int STMT_VAR = 39;
+	static final int STMT_WHILE = 40;
+	static final int STMT_COUNTED_LOOP = 41;
+
+	// Tags of literal values.
+	static final int VALUE_NIL = 0;
+	static final int VALUE_FALSE = 1;
+	static final int VALUE_TRUE = 2;
+	static final int VALUE_NUMBER = 3;
+	static final int VALUE_STRING = 4;
+
+	private final ErrorReporter reporter;
+	private final Map<String, Integer> strings = new HashMap<>();
+	private final List<String> table = new ArrayList<>();
+	private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	private final DataOutputStream out = new DataOutputStream(bytes);
+
+	/**
+	 * @param reporter where the errors of lazy bodies, which are compiled to be
+	 *                 written, are reported.
+	 */
+	public AstWriter(final ErrorReporter reporter) {
+		this.reporter = reporter;
+	}
+
+	public void write(final List<Stmt> statements) {
+		writeStatements(statements);
+	}
+
+	public void write(final Stmt stmt) {
+		writeStmt(stmt);
+	}
+
+	/**
+	 * Write the header, the string table and then every node written so far.
+	 */
+	public void writeTo(final OutputStream stream) throws IOException {
+		final DataOutputStream data = new DataOutputStream(stream);
+		data.writeInt(MAGIC);
+		data.writeInt(FORMAT);
+		writeVarInt(data, table.size());
+		for (final String string : table) {
+			final byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(data, utf8.length);
+			data.write(utf8);
+		}
+		bytes.writeTo(data);
+		data.flush();
+	}
+
+	static void writeVarInt(final DataOutputStream data, int value) throws IOException {
+		while ((value & ~0x7f) != 0) {
+			data.writeByte((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		data.writeByte(value);
+	}
+
+	private void writeVarInt(final int value) {
+		try {
+			writeVarInt(out, value);
+		} catch (IOException e) {
+			// Writing into memory does not fail.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void writeDouble(final double value) {
+		try {
+			out.writeDouble(value);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void writeString(final String string) {
+		Integer index = strings.get(string);
+		if (index == null) {
+			index = table.size();
+			strings.put(string, index);
+			table.add(string);
+		}
+		writeVarInt(index);
+	}
+
+	private void writeToken(final Token token) {
+		writeVarInt(token.type.ordinal());
+		writeString(token.lexeme);
+		writeVarInt(token.line);
+	}
+
+	private void writeTokens(final List<Token> tokens) {
+		writeVarInt(tokens.size());
+		for (final Token token : tokens) {
+			writeToken(token);
+		}
+	}
+
+	private void writeDepth(final int depth) {
+		// Globals are -1, which is written as 0.
+		writeVarInt(depth + 1);
+	}
+
+	private void writeValue(final Object value) {
+		if (value == null) {
+			writeVarInt(VALUE_NIL);
+		} else if (value instanceof Boolean) {
+			writeVarInt((Boolean) value ? VALUE_TRUE : VALUE_FALSE);
+		} else if (value instanceof Double) {
+			writeVarInt(VALUE_NUMBER);
+			writeDouble((Double) value);
+		} else {
+			writeVarInt(VALUE_STRING);
+			writeString(value.toString());
+		}
+	}
+
+	private void writeExpr(final Expr expr) {
+		if (expr == null) {
+			writeVarInt(NONE);
+			return;
+		}
+		expr.accept(this);
+	}
+
+	private void writeExprs(final List<Expr> exprs) {
+		writeVarInt(exprs.size());
+		for (final Expr expr : exprs) {
+			writeExpr(expr);
+		}
+	}
+
+	private void writeStmt(final Stmt stmt) {
+		if (stmt == null) {
+			writeVarInt(NONE);
+			return;
+		}
+		stmt.accept(this);
+	}
+
+	private void writeStatements(final List<Stmt> statements) {
+		writeVarInt(statements.size());
+		for (final Stmt stmt : statements) {
+			writeStmt(stmt);
+		}
+	}
+
+	private void writeFunction(final Function function) {
+		writeToken(function.name);
+		writeTokens(function.params);
+		// A lazy body is parsed and resolved now, it is read back as a plain one.
+		writeStatements(function.lazyBody != null ? function.lazyBody.get(reporter, function) : function.body);
+	}
+
+	@Override
+	public Void visitAssignExpr(final Assign expr) {
+		writeVarInt(EXPR_ASSIGN);
+		writeToken(expr.name);
+		writeExpr(expr.value);
+		writeDepth(expr.depth);
+		return null;
+	}
+
+	@Override
+	public Void visitBinaryExpr(final Binary expr) {
+		writeVarInt(EXPR_BINARY);
+		writeExpr(expr.left);
+		writeToken(expr.operator);
+		writeExpr(expr.right);
+		writeVarInt(expr.numeric ? 1 : 0);
+		return null;
+	}
+
+	@Override
+	public Void visitCallExpr(final Call expr) {
+		writeVarInt(EXPR_CALL);
+		writeExpr(expr.callee);
+		writeToken(expr.paren);
+		writeExprs(expr.arguments);
+		writeVarInt(expr.tail ? 1 : 0);
+		return null;
+	}
+
+	@Override
+	public Void visitGetExpr(final Get expr) {
+		writeVarInt(EXPR_GET);
+		writeExpr(expr.object);
+		writeToken(expr.name);
+		return null;
+	}
+
+	@Override
+	public Void visitGroupingExpr(final Grouping expr) {
+		writeVarInt(EXPR_GROUPING);
+		writeExpr(expr.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitInterpolationExpr(final Expr.Interpolation expr) {
+		writeVarInt(EXPR_INTERPOLATION);
+		writeVarInt(expr.strings.size());
+		for (final String string : expr.strings) {
+			writeString(string);
+		}
+		writeExprs(expr.expressions);
+		return null;
+	}
+
+	@Override
+	public Void visitLiteralExpr(final Literal expr) {
+		writeVarInt(EXPR_LITERAL);
+		writeValue(expr.value);
+		return null;
+	}
+
+	@Override
+	public Void visitLogicalExpr(final Logical expr) {
+		writeVarInt(EXPR_LOGICAL);
+		writeExpr(expr.left);
+		writeToken(expr.operator);
+		writeExpr(expr.right);
+		return null;
+	}
+
+	@Override
+	public Void visitSetExpr(final Set expr) {
+		writeVarInt(EXPR_SET);
+		writeExpr(expr.object);
+		writeToken(expr.name);
+		writeExpr(expr.value);
+		return null;
+	}
+
+	@Override
+	public Void visitSuperExpr(final Super expr) {
+		writeVarInt(EXPR_SUPER);
+		writeToken(expr.keyword);
+		writeToken(expr.method);
+		writeDepth(expr.depth);
+		return null;
+	}
+
+	@Override
+	public Void visitThisExpr(final This expr) {
+		writeVarInt(EXPR_THIS);
+		writeToken(expr.keyword);
+		writeDepth(expr.depth);
+		return null;
+	}
+
+	@Override
+	public Void visitUnaryExpr(final Unary expr) {
+		writeVarInt(EXPR_UNARY);
+		writeToken(expr.operator);
+		writeExpr(expr.right);
+		return null;
+	}
+
+	@Override
+	public Void visitVariableExpr(final Variable expr) {
+		writeVarInt(EXPR_VARIABLE);
+		writeToken(expr.name);
+		writeDepth(expr.depth);
+		writeVarInt(expr.counter + 1);
+		return null;
+	}
+
+	@Override
+	public Void visitBlockStmt(final Block stmt) {
+		writeVarInt(STMT_BLOCK);
+		writeStatements(stmt.statements);
+		return null;
+	}
+
+	@Override
+	public Void visitClassStmt(final Class stmt) {
+		writeVarInt(STMT_CLASS);
+		writeToken(stmt.name);
+		writeExpr(stmt.superclass);
+		writeVarInt(stmt.methods.size());
+		for (final Function method : stmt.methods) {
+			writeFunction(method);
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitExpressionStmt(final Expression stmt) {
+		writeVarInt(STMT_EXPRESSION);
+		writeExpr(stmt.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitFunctionStmt(final Function stmt) {
+		writeVarInt(STMT_FUNCTION);
+		writeFunction(stmt);
+		return null;
+	}
+
+	@Override
+	public Void visitIfStmt(final If stmt) {
+		writeVarInt(STMT_IF);
+		writeExpr(stmt.condition);
+		writeStmt(stmt.thenBranch);
+		writeStmt(stmt.elseBranch);
+		return null;
+	}
+
+	@Override
+	public Void visitPrintStmt(final Print stmt) {
+		writeVarInt(STMT_PRINT);
+		writeExpr(stmt.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitReturnStmt(final Return stmt) {
+		writeVarInt(STMT_RETURN);
+		writeToken(stmt.keyword);
+		writeExpr(stmt.value);
+		return null;
+	}
+
+	@Override
+	public Void visitVarStmt(final Var stmt) {
+		writeVarInt(STMT_VAR);
+		writeToken(stmt.name);
+		writeExpr(stmt.initializer);
+		return null;
+	}
+
+	@Override
+	public Void visitCountedLoopStmt(final Stmt.CountedLoop stmt) {
+		writeVarInt(STMT_COUNTED_LOOP);
+		writeStmt(stmt.initializer);
+		writeExpr(stmt.condition);
+		writeExpr(stmt.increment);
+		writeStmt(stmt.body);
+		writeVarInt((stmt.counted ? 1 : 0) | (stmt.flat ? 2 : 0) | (stmt.shared ? 4 : 0));
+		return null;
+	}
+
+	@Override
+	public Void visitWhileStmt(final While stmt) {
+		writeVarInt(STMT_WHILE);
+		writeToken(stmt.keyword);
+		writeExpr(stmt.condition);
+		writeStmt(stmt.body);
+		return null;
+	}
+}
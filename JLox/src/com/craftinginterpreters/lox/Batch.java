@@ -0,0 +1,184 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs many scripts in one JVM on a number of threads, each script in its own
+ * context of a {@link ContextPool}. The output and the errors of every script
+ * are captured and printed after it, in the order of the scripts, followed by
+ * a summary of the statuses and the times.
+ */
+public class Batch {
+	// Exit status of a script which could not be read (EX_NOINPUT).
+	private static final int NO_INPUT = 66;
+
+	private final ContextPool pool;
+	private final int jobs;
+
+	public Batch(final ContextPool pool, final int jobs) {
+		this.pool = pool;
+		this.jobs = jobs;
+	}
+
+	/**
+	 * @param spec a directory, whose .lox files are run, a glob such as
+	 *             "tests/**.lox", or a manifest listing a script per line.
+	 */
+	public static List<Path> scripts(final String spec) throws IOException {
+		final Path path = Paths.get(spec);
+		if (Files.isDirectory(path)) {
+			return find(path, FileSystems.getDefault().getPathMatcher("glob:**.lox"));
+		}
+		if (spec.matches(".*[*?\\[{].*")) {
+			// Walk from the longest directory without a wildcard.
+			final Path root = Paths.get(spec.substring(0, spec.replaceAll("[*?\\[{].*", "").lastIndexOf('/') + 1));
+			return find(root, FileSystems.getDefault().getPathMatcher("glob:" + spec));
+		}
+
+		final List<Path> scripts = new ArrayList<>();
+		final Path directory = path.toAbsolutePath().getParent();
+		for (final String line : Files.readAllLines(path, Charset.defaultCharset())) {
+			final String name = line.trim();
+			if (name.isEmpty() || name.startsWith("#")) continue;
+			scripts.add(directory.resolve(name).normalize());
+		}
+		return scripts;
+	}
+
+	private static List<Path> find(final Path root, final PathMatcher matcher) throws IOException {
+		try (final Stream<Path> files = Files.walk(root)) {
+			final List<Path> scripts = files.filter(Files::isRegularFile).filter(matcher::matches)
+					.collect(Collectors.toList());
+			Collections.sort(scripts);
+			return scripts;
+		}
+	}
+
+	/**
+	 * @return 0 when every script succeeded, or else the highest exit status.
+	 */
+	public int run(final List<Path> scripts, final PrintStream out) throws InterruptedException {
+		final long start = System.nanoTime();
+		final ExecutorService executor = Executors.newFixedThreadPool(jobs, pool.getEngine().threads("batch"));
+		final List<Future<Result>> futures = new ArrayList<>();
+		for (final Path script : scripts) {
+			futures.add(executor.submit(() -> runScript(script)));
+		}
+		executor.shutdown();
+
+		final List<Result> results = new ArrayList<>();
+		for (final Future<Result> future : futures) {
+			final Result result;
+			try {
+				result = future.get();
+			} catch (ExecutionException e) {
+				throw new IllegalStateException(e.getCause());
+			}
+			results.add(result);
+			print(result, out);
+		}
+		return summarize(results, System.nanoTime() - start, out);
+	}
+
+	static void print(final Result result, final PrintStream out) {
+		out.println("== " + result.script + " (exit " + result.status + ", "
+				+ String.format("%.1f", result.nanos / 1e6) + "ms)");
+		out.write(result.out, 0, result.out.length);
+		out.write(result.err, 0, result.err.length);
+	}
+
+	Result runScript(final Path script) {
+		final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+		final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+		final PrintStream scriptOut = utf8(stdout);
+		final PrintStream scriptErr = utf8(stderr);
+
+		final long start = System.nanoTime();
+		int status;
+		try {
+			final String source = new String(Files.readAllBytes(script), Charset.defaultCharset());
+			final Context context = pool.acquire(scriptOut, scriptErr);
+			status = context.eval(source);
+			pool.release(context);
+		} catch (IOException e) {
+			scriptErr.println("Could not read " + script + ": " + e.getMessage());
+			status = NO_INPUT;
+		} catch (RuntimeException | StackOverflowError e) {
+			// One broken script must not stop the batch, its context is dropped.
+			scriptErr.println("Internal error: " + e);
+			status = ErrorReporter.APPLICATION_RUNTIME_ERROR;
+		}
+		final long nanos = System.nanoTime() - start;
+		scriptOut.flush();
+		scriptErr.flush();
+		return new Result(script, status, nanos, stdout.toByteArray(), stderr.toByteArray());
+	}
+
+	static int summarize(final List<Result> results, final long nanos, final PrintStream out) {
+		int succeeded = 0;
+		int compileErrors = 0;
+		int runtimeErrors = 0;
+		int status = 0;
+		long scriptNanos = 0;
+		Result slowest = null;
+		for (final Result result : results) {
+			if (result.status == 0) succeeded++;
+			else if (result.status == ErrorReporter.APPLICATION_ERROR) compileErrors++;
+			else runtimeErrors++;
+			status = Math.max(status, result.status);
+			scriptNanos += result.nanos;
+			if (slowest == null || result.nanos > slowest.nanos) slowest = result;
+		}
+
+		out.println("== " + results.size() + " scripts: " + succeeded + " succeeded, " + compileErrors
+				+ " compile errors, " + runtimeErrors + " runtime errors");
+		out.printf("== %.1fms wall, %.1fms in scripts", nanos / 1e6, scriptNanos / 1e6);
+		if (slowest != null) out.printf(", slowest %s (%.1fms)", slowest.script, slowest.nanos / 1e6);
+		out.println();
+		out.flush();
+		return status;
+	}
+
+	private static PrintStream utf8(final ByteArrayOutputStream bytes) {
+		try {
+			return new PrintStream(bytes, false, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			// Every Java platform is required to support UTF-8.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static class Result {
+		final Path script;
+		final int status;
+		final long nanos;
+		final byte[] out;
+		final byte[] err;
+
+		Result(final Path script, final int status, final long nanos, final byte[] out, final byte[] err) {
+			this.script = script;
+			this.status = status;
+			this.nanos = nanos;
+			this.out = out;
+			this.err = err;
+		}
+	}
+}
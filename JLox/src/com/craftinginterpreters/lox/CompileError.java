@@ -0,0 +1,18 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Stops a run when the body of a lazily parsed function fails to compile on
+ * its first call. Its errors were reported as compile errors already, so a run
+ * ends with the status 65 and reports nothing more; a call from the host sees
+ * it as any other runtime error.
+ */
+public class CompileError extends RuntimeError {
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+
+	public CompileError(final Token token, final String message) {
+		super(token, message);
+	}
+}
@@ -0,0 +1,120 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * The state of one execution: the globals, where the output goes and where the
+ * errors are reported. A context is used by one thread at a time, while the
+ * programs it runs may be shared with other contexts.
+ */
+public class Context {
+	private final LoxEngine engine;
+	private final ErrorReporter reporter;
+	private final Interpreter interpreter;
+
+	Context(final LoxEngine engine, final PrintStream out, final PrintStream err) {
+		this.engine = engine;
+		this.reporter = new ErrorReporter(err);
+		this.interpreter = new Interpreter(out, reporter);
+		interpreter.setMaxDepth(engine.getMaxDepth());
+		interpreter.setLimits(engine.getLimits());
+	}
+
+	Context(final LoxEngine engine, final PrintStream out, final PrintStream err, final Environment globals,
+			final Interpreter base) {
+		this.engine = engine;
+		this.reporter = new ErrorReporter(err);
+		this.interpreter = new Interpreter(out, reporter, globals, base);
+		interpreter.setMaxDepth(engine.getMaxDepth());
+		interpreter.setLimits(engine.getLimits());
+	}
+
+	/**
+	 * @return the exit status of the run: 0, 65 when the body of a lazily parsed
+	 *         function fails to compile, or 70 after a runtime error.
+	 */
+	public int run(final Program program) {
+		reporter.hadError = false;
+		reporter.hadRuntimeError = false;
+		interpreter.interpret(program.getStatements());
+		return reporter.exitCode();
+	}
+
+	/**
+	 * Compile the source with the engine and run it.
+	 * 
+	 * @return the exit status of the run: 0, 65 after a compile error or 70 after
+	 *         a runtime error.
+	 */
+	public int eval(final String source) {
+		reporter.hadError = false;
+		reporter.hadRuntimeError = false;
+		final Program program = engine.compile(source, reporter);
+		if (program == null) return reporter.exitCode();
+		return run(program);
+	}
+
+	/**
+	 * Compile a new version of the source the globals come from and update
+	 * them without running it again, see {@link Interpreter#reload}: the
+	 * functions and methods run their new code from their next call, while the
+	 * values of the globals and the instances stay. Call it between runs.
+	 * 
+	 * @return the exit status of the reload: 0, 65 after a compile error or 70
+	 *         after a runtime error declaring a new global.
+	 */
+	public int reload(final String source) {
+		reporter.hadError = false;
+		reporter.hadRuntimeError = false;
+		final Program program = engine.compile(source, reporter);
+		if (program == null) return reporter.exitCode();
+		interpreter.reload(program.getStatements());
+		return reporter.exitCode();
+	}
+
+	/**
+	 * Call a function of the globals from the host, with the limits of a run,
+	 * see {@link Interpreter#call}.
+	 * 
+	 * @return the value it returned.
+	 * @throws RuntimeError when the call fails.
+	 */
+	public Object call(final LoxCallable function, final List<Object> arguments) {
+		return interpreter.call(function, arguments);
+	}
+
+	/**
+	 * @param limits what each of the next runs may use, or null for no limits.
+	 */
+	public void setLimits(final Limits limits) {
+		interpreter.setLimits(limits);
+	}
+
+	/**
+	 * Stop the run in progress with a runtime error, from any thread.
+	 */
+	public void cancel() {
+		interpreter.cancel();
+	}
+
+	/**
+	 * Send the output and the errors of the next runs elsewhere, the globals stay.
+	 */
+	public void redirect(final PrintStream out, final PrintStream err) {
+		interpreter.setOut(out);
+		reporter.setErr(err);
+	}
+
+	public LoxEngine getEngine() {
+		return engine;
+	}
+
+	public Interpreter getInterpreter() {
+		return interpreter;
+	}
+
+	public ErrorReporter getReporter() {
+		return reporter;
+	}
+}
@@ -0,0 +1,97 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Contexts which all start from the globals left by a prelude, without running
+ * the prelude again. The prelude runs once in a base context whose globals are
+ * then frozen; every context of the pool reads them through a copy-on-write
+ * fork, so what a script defines or assigns never reaches the base or another
+ * context, and releasing a context makes it pristine again in constant time.
+ *
+ * The frozen globals are shared by the threads of the pool without locks, so
+ * the prelude may only leave values no script can change in them. A prelude
+ * leaving an instance, whose fields a script could set, or a closure or bound
+ * method, whose captured variables a script could assign, is refused.
+ */
+public class ContextPool {
+	private final LoxEngine engine;
+	private final Interpreter base;
+	private final Environment frozen;
+	private final BlockingQueue<Context> idle;
+
+	/**
+	 * @param prelude run once before the first context is made, or null.
+	 * @param maxIdle how many released contexts are kept for reuse.
+	 */
+	public ContextPool(final LoxEngine engine, final Program prelude, final int maxIdle) {
+		this.engine = engine;
+		final Context context = engine.newContext(System.out, System.err);
+		if (prelude != null && context.run(prelude) != 0) {
+			throw new IllegalStateException("The prelude failed.");
+		}
+		this.base = context.getInterpreter();
+		checkShareable(base.globals);
+		this.frozen = base.globals.freeze();
+		this.idle = new ArrayBlockingQueue<>(Math.max(1, maxIdle));
+	}
+
+	private static void checkShareable(final Environment globals) {
+		for (final Map.Entry<String, Object> entry : globals.getValues().entrySet()) {
+			final String kind = mutableKind(entry.getValue(), globals);
+			if (kind != null) {
+				throw new IllegalStateException("The prelude leaves " + kind + " in the global '" + entry.getKey()
+						+ "', which every context of the pool would share.");
+			}
+		}
+	}
+
+	/*
+	 * @return what can be changed in the value, or null for a value which
+	 *         stays as it is: one with no state, or a function or a class
+	 *         declared in the globals, whose closure only holds super.
+	 */
+	private static String mutableKind(final Object value, final Environment globals) {
+		if (value instanceof LoxInstance) return "an instance";
+		if (value instanceof LoxFunction && ((LoxFunction) value).getClosure() != globals) {
+			return "a closure or bound method";
+		}
+		if (value instanceof LoxClass) {
+			final LoxClass klass = (LoxClass) value;
+			for (final LoxFunction method : klass.getMethods().values()) {
+				final Environment closure = method.getClosure();
+				if ((klass.getSuperclass() != null ? closure.enclosing : closure) != globals) {
+					return "a class declared in a function";
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return a context with the globals of the prelude, used by one thread at a
+	 *         time until it is released.
+	 */
+	public Context acquire(final PrintStream out, final PrintStream err) {
+		final Context context = idle.poll();
+		if (context == null) return new Context(engine, out, err, frozen.fork(), base);
+
+		context.redirect(out, err);
+		return context;
+	}
+
+	/**
+	 * Forget what the context did and keep it for the next acquire.
+	 */
+	public void release(final Context context) {
+		context.getInterpreter().globals.reset();
+		idle.offer(context);
+	}
+
+	public LoxEngine getEngine() {
+		return engine;
+	}
+}
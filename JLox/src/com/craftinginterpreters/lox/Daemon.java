@@ -0,0 +1,204 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a warm JVM running scripts sent by {@link #connect(int, Path)} over a
+ * local socket, so that a script does not pay for the start of the JVM and the
+ * compilation of the interpreter.
+ *
+ * A request is the length of the source followed by its UTF-8 bytes. The reply
+ * is a sequence of frames: a kind, a length and the bytes of the standard
+ * output or the standard error, and finally the exit status of the script.
+ * Every request runs in its own context of a shared pool, which starts from the
+ * globals of its prelude, on a fixed number of workers behind a bounded queue.
+ * Requests which do not fit in the queue are refused, as are sources longer
+ * than {@link #MAX_SOURCE} bytes and clients which do not send their request
+ * within {@link #READ_TIMEOUT} milliseconds.
+ */
+public class Daemon {
+	private static final int FRAME_EXIT = 0;
+	private static final int FRAME_OUT = 1;
+	private static final int FRAME_ERR = 2;
+
+	// Exit status of a script the daemon had no room for (EX_TEMPFAIL).
+	private static final int BUSY = 75;
+	private static final int INTERNAL_ERROR = 70;
+	// Exit status of a request the daemon could not read (EX_DATAERR).
+	private static final int BAD_REQUEST = 65;
+
+	static final int MAX_SOURCE = 16 * 1024 * 1024;
+	static final int READ_TIMEOUT = 30_000;
+
+	private final ContextPool pool;
+	private final int workers;
+	private final int queueDepth;
+	private final int port;
+
+	/**
+	 * @param pool gives the contexts of the requests, its engine compiles the
+	 *             scripts of every request, so a script sent again is not
+	 *             compiled again.
+	 */
+	public Daemon(final ContextPool pool, final int workers, final int queueDepth, final int port) {
+		this.pool = pool;
+		this.workers = workers;
+		this.queueDepth = queueDepth;
+		this.port = port;
+	}
+
+	public void serve() throws IOException {
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueDepth), pool.getEngine().threads("daemon"));
+		try (final ServerSocket server = new ServerSocket(port, 0, InetAddress.getLoopbackAddress())) {
+			System.err.println("jlox daemon listening on " + server.getLocalSocketAddress());
+			for (;;) {
+				final Socket socket = server.accept();
+				try {
+					executor.execute(() -> handle(socket));
+				} catch (RejectedExecutionException e) {
+					refuse(socket);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void handle(final Socket socket) {
+		try (final Socket client = socket) {
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(client.getOutputStream()));
+			// An idle or slow client does not hold a worker forever.
+			client.setSoTimeout(READ_TIMEOUT);
+			final int length = in.readInt();
+			if (length < 0 || length > MAX_SOURCE) {
+				reply(out, "jlox daemon: invalid source length " + length + ".\n", BAD_REQUEST);
+				return;
+			}
+			final byte[] utf8 = new byte[length];
+			in.readFully(utf8);
+			final String source = new String(utf8, StandardCharsets.UTF_8);
+
+			final PrintStream stdout = new PrintStream(new BufferedOutputStream(new FrameOutputStream(out, FRAME_OUT)), true, "UTF-8");
+			final PrintStream stderr = new PrintStream(new BufferedOutputStream(new FrameOutputStream(out, FRAME_ERR)), true, "UTF-8");
+			final Context context = pool.acquire(stdout, stderr);
+
+			int status;
+			try {
+				status = context.eval(source);
+				pool.release(context);
+			} catch (RuntimeException | StackOverflowError e) {
+				// Keep the daemon alive whatever the script does, and drop the context.
+				stderr.println("Internal error: " + e);
+				status = INTERNAL_ERROR;
+			}
+			stdout.flush();
+			stderr.flush();
+			writeExit(out, status);
+		} catch (IOException e) {
+			// The client went away, there is nobody to report to.
+		}
+	}
+
+	private static void refuse(final Socket socket) {
+		try (final Socket client = socket) {
+			reply(new DataOutputStream(client.getOutputStream()), "jlox daemon is busy, try again later.\n", BUSY);
+		} catch (IOException e) {
+			// The client went away.
+		}
+	}
+
+	// Reply with an error and an exit status, without running anything.
+	private static void reply(final DataOutputStream out, final String error, final int status) throws IOException {
+		final byte[] message = error.getBytes(StandardCharsets.UTF_8);
+		synchronized (out) {
+			out.writeByte(FRAME_ERR);
+			out.writeInt(message.length);
+			out.write(message);
+		}
+		writeExit(out, status);
+	}
+
+	private static void writeExit(final DataOutputStream out, final int status) throws IOException {
+		synchronized (out) {
+			out.writeByte(FRAME_EXIT);
+			out.writeInt(status);
+			out.flush();
+		}
+	}
+
+	/*
+	 * Sends everything written to it as frames of one kind, both kinds of frames
+	 * share the stream of the socket.
+	 */
+	private static class FrameOutputStream extends OutputStream {
+		private final DataOutputStream out;
+		private final int kind;
+
+		FrameOutputStream(final DataOutputStream out, final int kind) {
+			this.out = out;
+			this.kind = kind;
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+			if (length == 0) return;
+			synchronized (out) {
+				out.writeByte(kind);
+				out.writeInt(length);
+				out.write(bytes, offset, length);
+				out.flush();
+			}
+		}
+	}
+
+	/**
+	 * Run a script on the daemon listening on the port, copying its output to
+	 * the standard output and error.
+	 *
+	 * @return the exit status of the script.
+	 */
+	public static int connect(final int port, final Path script) throws IOException {
+		final byte[] source = Files.readAllBytes(script);
+		try (final Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			out.writeInt(source.length);
+			out.write(source);
+			out.flush();
+
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			for (;;) {
+				final int kind = in.readByte();
+				if (kind == FRAME_EXIT) {
+					System.out.flush();
+					return in.readInt();
+				}
+				final byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				(kind == FRAME_OUT ? System.out : System.err).write(bytes);
+			}
+		}
+	}
+}
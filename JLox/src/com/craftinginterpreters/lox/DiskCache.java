@@ -0,0 +1,81 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * A directory of programs which were already scanned, parsed and resolved. The
+ * entries are keyed by a hash of the interpreter version and the source, so a
+ * changed script or a new interpreter never sees a stale entry.
+ */
+public class DiskCache {
+	private final Path directory;
+
+	public DiskCache(final Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * @return the cached statements of the source, already resolved, or null
+	 *         when there is no usable entry.
+	 */
+	public List<Stmt> load(final String source) {
+		final Path path = entry(source);
+		if (!Files.isRegularFile(path)) return null;
+
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new AstReader(buffer).readStatements();
+		} catch (IOException | RuntimeException e) {
+			// A truncated or corrupted entry is a miss, it is replaced by the next store.
+			return null;
+		}
+	}
+
+	public void store(final String source, final List<Stmt> statements, final ErrorReporter reporter) {
+		final AstWriter writer = new AstWriter(reporter);
+		writer.write(statements);
+
+		try {
+			Files.createDirectories(directory);
+			// Write to a temporary file first so that readers never see a partial entry.
+			final Path temp = Files.createTempFile(directory, "entry", ".tmp");
+			try (final OutputStream out = Files.newOutputStream(temp)) {
+				writer.writeTo(out);
+			}
+			Files.move(temp, entry(source), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// The cache is only an optimization.
+			System.err.println("Could not write to the cache: " + e.getMessage());
+		}
+	}
+
+	private Path entry(final String source) {
+		try {
+			final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(Lox.VERSION.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(source.getBytes(StandardCharsets.UTF_8));
+
+			final StringBuilder name = new StringBuilder();
+			for (final byte b : digest.digest()) {
+				name.append(Character.forDigit((b >> 4) & 0xf, 16));
+				name.append(Character.forDigit(b & 0xf, 16));
+			}
+			return directory.resolve(name.append(".ast").toString());
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256.
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -1,18 +1,72 @@
 package com.craftinginterpreters.lox;
 
-import java.util.HashMap;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 public class Environment {
 	public final Environment enclosing;
-	private final Map<String, Object> values = new HashMap<String, Object>();
+	// Keyed by the identity of the names, see Symbols.
+	private Map<String, Object> values = Symbols.map();
+	// The frozen globals this environment was forked from, shared with the other
+	// forks and never written: names missing from values are looked up there.
+	private final Map<String, Object> base;
+	// The value of a frozen name the fork removed.
+	private static final Object REMOVED = new Object();
 	
 	public Environment() {
 		enclosing = null;
+		base = null;
 	}
 	
 	public Environment(final Environment enclosing) {
 		this.enclosing = enclosing;
+		this.base = null;
+	}
+	
+	private Environment(final Map<String, Object> base) {
+		this.enclosing = null;
+		this.base = base;
+	}
+	
+	/**
+	 * @return an environment with the values of this one which is never written,
+	 *         only forked.
+	 */
+	public Environment freeze() {
+		final Map<String, Object> all = base != null ? new IdentityHashMap<>(base) : Symbols.<Object>map();
+		for (final Map.Entry<String, Object> entry : values.entrySet()) {
+			if (entry.getValue() == REMOVED) {
+				all.remove(entry.getKey());
+			} else {
+				all.put(entry.getKey(), entry.getValue());
+			}
+		}
+		return new Environment(Collections.unmodifiableMap(all));
+	}
+	
+	/**
+	 * @return a copy-on-write view of a frozen environment, made in constant time:
+	 *         it reads the frozen values until it writes its own.
+	 */
+	public Environment fork() {
+		if (base == null || !values.isEmpty()) {
+			throw new IllegalStateException("Only a frozen environment can be forked.");
+		}
+		return new Environment(base);
+	}
+	
+	/**
+	 * Drop everything written since the fork.
+	 */
+	public void reset() {
+		if (base == null) throw new IllegalStateException("Only a forked environment can be reset.");
+		values = Symbols.map();
 	}
 	
 	public void define(final String name, final Object value) {
@@ -28,7 +82,28 @@ public class Environment {
 	}
 	
 	public Object getAt(final int distance, final String name) {
-		return ancestor(distance).values.get(name);
+		return ancestor(distance).read(name);
+	}
+	
+	private Object read(final String name) {
+		final Object value = values.get(name);
+		if (value == REMOVED) return null;
+		if (value != null || base == null || values.containsKey(name)) return value;
+		return base.get(name);
+	}
+	
+	/**
+	 * @return whether the value of the name is this environment's own, not one
+	 *         shared with the other forks of the frozen environment.
+	 */
+	boolean owns(final String name) {
+		return values.containsKey(name) && values.get(name) != REMOVED;
+	}
+	
+	private boolean contains(final String name) {
+		final Object value = values.get(name);
+		if (value != null) return value != REMOVED;
+		return values.containsKey(name) || (base != null && base.containsKey(name));
 	}
 	
 	public void assignAt(final int distance, final Token name, final Object value) {
@@ -36,8 +111,8 @@ public class Environment {
 	}
 	
 	public Object get(final Token name) {
-		if (values.containsKey(name.lexeme)) {
-			return values.get(name.lexeme);
+		if (contains(name.lexeme)) {
+			return read(name.lexeme);
 		}
 		
 		if (enclosing != null) {
@@ -48,7 +123,7 @@ public class Environment {
 	}
 	
 	public void assign(final Token name, final Object value) {
-		if (values.containsKey(name.lexeme)) {
+		if (contains(name.lexeme)) {
 			values.put(name.lexeme, value);
 			return;
 		}
@@ -59,4 +134,101 @@ public class Environment {
 		}
 		throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
 	}
+	
+	/**
+	 * @return the values of this environment, through which they can be changed.
+	 *         The values of a fork are its own over the frozen ones.
+	 */
+	public Map<String, Object> getValues() {
+		if (base == null) return values;
+		return new Overlay();
+	}
+	
+	/*
+	 * The values of a fork as one map, the frozen values it wrote over or removed
+	 * hidden.
+	 */
+	private class Overlay extends AbstractMap<String, Object> {
+		@Override
+		public Object get(final Object key) {
+			return key instanceof String ? read((String) key) : null;
+		}
+		
+		@Override
+		public boolean containsKey(final Object key) {
+			return key instanceof String && contains((String) key);
+		}
+		
+		@Override
+		public Object put(final String key, final Object value) {
+			final Object previous = read(key);
+			values.put(key, value);
+			return previous;
+		}
+		
+		@Override
+		public Object remove(final Object key) {
+			if (!(key instanceof String)) return null;
+			final Object previous = read((String) key);
+			// The frozen value stays for the other forks, this one only hides it.
+			if (base.containsKey(key)) {
+				values.put((String) key, REMOVED);
+			} else {
+				values.remove(key);
+			}
+			return previous;
+		}
+		
+		@Override
+		public Set<Map.Entry<String, Object>> entrySet() {
+			return new AbstractSet<Map.Entry<String, Object>>() {
+				@Override
+				public int size() {
+					int size = base.size();
+					for (final Map.Entry<String, Object> entry : values.entrySet()) {
+						if (entry.getValue() == REMOVED) {
+							size--;
+						} else if (!base.containsKey(entry.getKey())) {
+							size++;
+						}
+					}
+					return size;
+				}
+				
+				@Override
+				public Iterator<Map.Entry<String, Object>> iterator() {
+					return new Iterator<Map.Entry<String, Object>>() {
+						private final Iterator<Map.Entry<String, Object>> own = values.entrySet().iterator();
+						private final Iterator<Map.Entry<String, Object>> frozen = base.entrySet().iterator();
+						private Map.Entry<String, Object> next = advance();
+						
+						private Map.Entry<String, Object> advance() {
+							while (own.hasNext()) {
+								final Map.Entry<String, Object> entry = own.next();
+								if (entry.getValue() != REMOVED) return entry;
+							}
+							while (frozen.hasNext()) {
+								final Map.Entry<String, Object> entry = frozen.next();
+								if (!values.containsKey(entry.getKey())) return entry;
+							}
+							return null;
+						}
+						
+						@Override
+						public boolean hasNext() {
+							return next != null;
+						}
+						
+						@Override
+						public Map.Entry<String, Object> next() {
+							if (next == null) throw new NoSuchElementException();
+							final Map.Entry<String, Object> entry = next;
+							next = advance();
+							return entry;
+						}
+					};
+				}
+			};
+		}
+	}
 }
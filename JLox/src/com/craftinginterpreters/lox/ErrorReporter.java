@@ -0,0 +1,74 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+
+/**
+ * Reports the errors of one run and remembers whether there were any, so that
+ * runs with their own reporter do not interfere with each other.
+ */
+public class ErrorReporter {
+	public static final int APPLICATION_ERROR = 65;
+	public static final int APPLICATION_RUNTIME_ERROR = 70;
+
+	public boolean hadError = false;
+	public boolean hadRuntimeError = false;
+	private RuntimeError lastRuntimeError = null;
+	private PrintStream err;
+
+	public ErrorReporter(final PrintStream err) {
+		this.err = err;
+	}
+
+	public void error(final int line, final String message) {
+		report(line, "", message);
+	}
+
+	private void report(final int line, final String where, final String message) {
+		err.println("[line " + line + "] Error" + where + ": " + message);
+		hadError = true;
+	}
+
+	public void error(final Token token, final String message) {
+		if (token.type == TokenType.EOF) {
+			report(token.line, " at end", message);
+		} else {
+			report(token.line, " at '" + token.lexeme + "'", message);
+		}
+	}
+
+	/**
+	 * @return the exit status of a script run with this reporter.
+	 */
+	public int exitCode() {
+		if (hadError)
+			return APPLICATION_ERROR;
+		if (hadRuntimeError)
+			return APPLICATION_RUNTIME_ERROR;
+		return 0;
+	}
+
+	public void runtimeError(final RuntimeError error) {
+		if (error.backtrace == null) {
+			err.println(error.getMessage() + "\n[line " + error.token.line + "]");
+		} else {
+			err.println(error.getMessage());
+			for (final String frame : error.backtrace) {
+				err.println(frame);
+			}
+		}
+		hadRuntimeError = true;
+		lastRuntimeError = error;
+	}
+
+	public RuntimeError getLastRuntimeError() {
+		return lastRuntimeError;
+	}
+
+	public PrintStream getErr() {
+		return err;
+	}
+
+	public void setErr(final PrintStream err) {
+		this.err = err;
+	}
+}
@@ -3,12 +3,18 @@ package com.craftinginterpreters.lox;
 import java.util.List;
 
 abstract class Expr {
+	// Depth of a variable which the Resolver did not find in any scope.
+	static final int GLOBAL = -1;
+	// Counter of a variable which is read from its environment.
+	static final int NO_COUNTER = -1;
+
 	interface Visitor<R> {
 		R visitAssignExpr(Assign expr);
 		R visitBinaryExpr(Binary expr);
 		R visitCallExpr(Call expr);
 		R visitGetExpr(Get expr);
 		R visitGroupingExpr(Grouping expr);
+		R visitInterpolationExpr(Interpolation expr);
 		R visitLiteralExpr(Literal expr);
 		R visitLogicalExpr(Logical expr);
 		R visitSetExpr(Set expr);
@@ -30,6 +36,8 @@ abstract class Expr {
 
 		final Token name;
 		final Expr value;
+		// Set by the Resolver.
+		int depth = GLOBAL;
 	}
 	static class Binary extends Expr {
 		Binary(Expr left, Token operator, Expr right) {
@@ -46,6 +54,8 @@ abstract class Expr {
 		final Expr left;
 		final Token operator;
 		final Expr right;
+		// Set by the TypeInference.
+		boolean numeric;
 	}
 	static class Call extends Expr {
 		Call(Expr callee, Token paren, List<Expr> arguments) {
@@ -62,6 +72,8 @@ abstract class Expr {
 		final Expr callee;
 		final Token paren;
 		final List<Expr> arguments;
+		// Set by the Resolver: the value of a return statement of a function.
+		boolean tail;
 	}
 	static class Get extends Expr {
 		Get(Expr object, Token name) {
@@ -89,6 +101,20 @@ abstract class Expr {
 
 		final Expr expression;
 	}
+	static class Interpolation extends Expr {
+		Interpolation(List<String> strings, List<Expr> expressions) {
+			this.strings = strings;
+			this.expressions = expressions;
+		}
+
+		@Override
+		<R> R accept(final Visitor<R> visitor) {
+			return visitor.visitInterpolationExpr(this);
+		}
+
+		final List<String> strings;
+		final List<Expr> expressions;
+	}
 	static class Literal extends Expr {
 		Literal(Object value) {
 			this.value = value;
@@ -146,6 +172,8 @@ abstract class Expr {
 
 		final Token keyword;
 		final Token method;
+		// Set by the Resolver.
+		int depth = GLOBAL;
 	}
 	static class This extends Expr {
 		This(Token keyword) {
@@ -158,6 +186,8 @@ abstract class Expr {
 		}
 
 		final Token keyword;
+		// Set by the Resolver.
+		int depth = GLOBAL;
 	}
 	static class Unary extends Expr {
 		Unary(Token operator, Expr right) {
@@ -184,6 +214,10 @@ abstract class Expr {
 		}
 
 		final Token name;
+		// Set by the Resolver.
+		int depth = GLOBAL;
+		// Set by the Resolver: how many counted loops in from the one whose counter it reads.
+		int counter = NO_COUNTER;
 	}
 
 	abstract <R> R accept(Visitor<R> visitor);
@@ -0,0 +1,183 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Runs a batch of scripts on worker processes, each a JVM of its own with its
+ * own heap, garbage collector and compiled code, for batches too heavy for the
+ * threads of one JVM.
+ *
+ * The coordinator keeps one thread per worker, which takes the next script from
+ * a shared queue whenever its worker is idle, so a worker with short scripts
+ * takes over the work the others have not started. A worker reads the paths of
+ * scripts from its standard input and answers each with the exit status, the
+ * time, the output and the errors of the script on its standard output. When a
+ * worker dies, its script goes back to the queue and a new worker is started;
+ * a script which killed two workers is reported as failed.
+ */
+public class Farm {
+	private static final int MAX_ATTEMPTS = 2;
+
+	private final List<String> command;
+	private final int processes;
+
+	/**
+	 * @param command   starts a worker, see {@link #command(List)}.
+	 * @param processes the number of workers, or 0 for one per core.
+	 */
+	public Farm(final List<String> command, final int processes) {
+		this.command = command;
+		this.processes = processes > 0 ? processes : Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * @param options passed to the workers, such as the prelude.
+	 * @return the command running a worker in a JVM like this one.
+	 */
+	public static List<String> command(final List<String> options) {
+		final List<String> command = new ArrayList<>(Arrays.asList(
+				System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+				"-cp", System.getProperty("java.class.path"), Lox.class.getName(), "--worker"));
+		command.addAll(options);
+		return command;
+	}
+
+	/**
+	 * @return 0 when every script succeeded, or else the highest exit status.
+	 */
+	public int run(final List<Path> scripts, final PrintStream out) throws InterruptedException {
+		final long start = System.nanoTime();
+		final ConcurrentLinkedQueue<Integer> queue = new ConcurrentLinkedQueue<>();
+		for (int i = 0; i < scripts.size(); i++) {
+			queue.add(i);
+		}
+		final Batch.Result[] results = new Batch.Result[scripts.size()];
+		final AtomicIntegerArray attempts = new AtomicIntegerArray(scripts.size());
+
+		final List<Thread> drivers = new ArrayList<>();
+		for (int i = 0; i < Math.min(processes, scripts.size()); i++) {
+			final Thread driver = new Thread(() -> drive(scripts, queue, results, attempts));
+			drivers.add(driver);
+			driver.start();
+		}
+		for (final Thread driver : drivers) {
+			driver.join();
+		}
+
+		for (final Batch.Result result : results) {
+			Batch.print(result, out);
+		}
+		return Batch.summarize(Arrays.asList(results), System.nanoTime() - start, out);
+	}
+
+	private void drive(final List<Path> scripts, final ConcurrentLinkedQueue<Integer> queue,
+			final Batch.Result[] results, final AtomicIntegerArray attempts) {
+		Worker worker = null;
+		try {
+			for (Integer index = queue.poll(); index != null; index = queue.poll()) {
+				final Path script = scripts.get(index);
+				try {
+					if (worker == null) worker = new Worker(command);
+					results[index] = worker.run(script);
+				} catch (IOException e) {
+					// The worker crashed or could not start: replace it and retry the script.
+					if (worker != null) worker.destroy();
+					worker = null;
+					if (attempts.incrementAndGet(index) < MAX_ATTEMPTS) {
+						queue.add(index);
+					} else {
+						final byte[] message = ("Worker failed: " + e + "\n").getBytes(StandardCharsets.UTF_8);
+						results[index] = new Batch.Result(script, ErrorReporter.APPLICATION_RUNTIME_ERROR, 0,
+								new byte[0], message);
+					}
+				}
+			}
+		} finally {
+			if (worker != null) worker.close();
+		}
+	}
+
+	private static class Worker {
+		private final Process process;
+		private final DataOutputStream requests;
+		private final DataInputStream replies;
+
+		Worker(final List<String> command) throws IOException {
+			process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+			requests = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+			replies = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+		}
+
+		Batch.Result run(final Path script) throws IOException {
+			requests.writeUTF(script.toAbsolutePath().toString());
+			requests.flush();
+
+			final int status = replies.readInt();
+			final long nanos = replies.readLong();
+			final byte[] out = new byte[replies.readInt()];
+			replies.readFully(out);
+			final byte[] err = new byte[replies.readInt()];
+			replies.readFully(err);
+			return new Batch.Result(script, status, nanos, out, err);
+		}
+
+		// Closing the requests is what tells a worker to exit.
+		void close() {
+			try {
+				requests.close();
+				process.waitFor();
+			} catch (IOException | InterruptedException e) {
+				destroy();
+			}
+		}
+
+		void destroy() {
+			process.destroyForcibly();
+		}
+	}
+
+	/**
+	 * The loop of a worker process: run the scripts named on the standard input
+	 * until it is closed. The standard output carries the replies, so System.out
+	 * must be sent elsewhere before the contexts of the batch are made.
+	 */
+	public static void serve(final Batch batch) throws IOException {
+		final DataInputStream requests = new DataInputStream(new BufferedInputStream(System.in));
+		final DataOutputStream replies = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+
+		for (;;) {
+			final String path;
+			try {
+				path = requests.readUTF();
+			} catch (EOFException e) {
+				return;
+			}
+			final Batch.Result result = batch.runScript(Paths.get(path));
+			replies.writeInt(result.status);
+			replies.writeLong(result.nanos);
+			replies.writeInt(result.out.length);
+			replies.write(result.out);
+			replies.writeInt(result.err.length);
+			replies.write(result.err);
+			replies.flush();
+		}
+	}
+}
@@ -1,7 +1,10 @@
 package com.craftinginterpreters.lox;
 
+import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
@@ -22,12 +25,54 @@ import com.craftinginterpreters.lox.Stmt.While;
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
-	public final Environment globals = new Environment();
-	private Environment environment = globals;
-	private final Map<Expr, Integer> locals = new HashMap<>();
+	public final Environment globals;
+	private Environment environment;
+	private final Map<String, LoxCallable> natives;
+	private OutputSink out;
+	private final ErrorReporter reporter;
+	// How deep the calls are nested, and may be.
+	private int depth = 0;
+	private int maxDepth = LoxEngine.DEFAULT_MAX_DEPTH;
+	// The steps between two checks of the limits, see Limits.
+	private static final int POLL_STEPS = 1024;
+	// Rough sizes of what runs allocate, for the allocation limit.
+	private static final int ENVIRONMENT_BYTES = 96;
+	private static final int INSTANCE_BYTES = 96;
+	private static final int ROPE_BYTES = 32;
+	// How many calls the backtraces keep at each end of a deep stack.
+	private static final int BACKTRACE_ENDS = 10;
+	// The function of each nested call and the line it was called from, up to depth.
+	private LoxCallable[] frames = new LoxCallable[64];
+	private int[] frameLines = new int[64];
+	private static final int MAX_KEPT_FRAMES = 1024;
+	// What the run may use, what it used, and when it is checked next.
+	private Limits limits = null;
+	private int callLimit = LoxEngine.DEFAULT_MAX_DEPTH;
+	private long steps = 0;
+	private long nextCheck = POLL_STEPS;
+	private long allocated = 0;
+	private boolean timed = false;
+	private long deadline = 0;
+	private volatile boolean cancelled = false;
+	// The counters of the counted loops running, innermost last, see count.
+	private double[] counterValues = new double[16];
+	private int counters = 0;
 	
 	public Interpreter() {
-		globals.define("clock", new LoxCallable() {
+		this(System.out, new ErrorReporter(System.err));
+	}
+	
+	/**
+	 * @param out where the print statements write.
+	 * @param reporter where the errors of the programs run by this interpreter go.
+	 */
+	public Interpreter(final PrintStream out, final ErrorReporter reporter) {
+		this.globals = new Environment();
+		this.environment = globals;
+		this.natives = new HashMap<>();
+		this.out = new OutputSink(out);
+		this.reporter = reporter;
+		defineNative("clock", new LoxCallable() {
 
 			/*
 			 * The implementation of call() calls the corresponding Java function and
@@ -50,23 +95,285 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 			}
 		});
 	}
+	
+	/**
+	 * An interpreter over globals forked from the frozen globals of another, whose
+	 * natives are already defined there.
+	 */
+	Interpreter(final PrintStream out, final ErrorReporter reporter, final Environment globals,
+			final Interpreter base) {
+		this.globals = globals;
+		this.environment = globals;
+		this.natives = base.natives;
+		this.out = new OutputSink(out);
+		this.reporter = reporter;
+	}
+	
+	private void defineNative(final String name, final LoxCallable function) {
+		natives.put(name, function);
+		globals.define(name, function);
+	}
+	
+	/**
+	 * @return the name the native function was defined with, or null.
+	 */
+	public String getNativeName(final Object function) {
+		for (final Map.Entry<String, LoxCallable> entry : natives.entrySet()) {
+			if (entry.getValue() == function) return entry.getKey();
+		}
+		return null;
+	}
+	
+	public LoxCallable getNative(final String name) {
+		return natives.get(name);
+	}
+	
+	public ErrorReporter getReporter() {
+		return reporter;
+	}
+	
+	void setMaxDepth(final int maxDepth) {
+		this.maxDepth = maxDepth;
+		this.callLimit = maxDepth;
+	}
+
+	/**
+	 * @param limits what each of the next runs may use, or null for no limits.
+	 */
+	public void setLimits(final Limits limits) {
+		this.limits = limits;
+	}
+
+	/**
+	 * Stop the run in progress at its next step, from any thread. A run
+	 * started after the call is not cancelled.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public void setOut(final PrintStream out) {
+		setOut(new OutputSink(out));
+	}
+	
+	public void setOut(final OutputSink out) {
+		this.out.flush();
+		this.out = out;
+	}
+	
+	/**
+	 * Write what the print statements left in the buffer of the output, and
+	 * flush its stream.
+	 */
+	public void flush() {
+		out.flush();
+	}
 
 	public void interpret(final List<Stmt> statements) {
+		startRun();
 		try {
-			statements.forEach(statement -> {
+			for (final Stmt statement : statements) {
 				execute(statement);
-			});
+			}
 
+		} catch (CompileError error) {
+			// Reported already, see LazyBody.
 		} catch (RuntimeError error) {
-			Lox.runtimeError(error);
+			// The output printed before the error comes before it.
+			out.flush();
+			reporter.runtimeError(error);
+		} finally {
+			// Who made the stream flushes it, a run only hands over what it printed.
+			out.drain();
+		}
+	}
+
+	/**
+	 * Call a function of the script from the host, as a run of its own: the
+	 * limits, the steps and a past cancel start over like for
+	 * {@link #interpret}, instead of going on from the last run.
+	 * 
+	 * @throws RuntimeError when the call fails, it is not reported.
+	 */
+	public Object call(final LoxCallable function, final List<Object> arguments) {
+		startRun();
+		try {
+			return function.call(this, arguments);
+		} finally {
+			out.drain();
+		}
+	}
+
+	/**
+	 * Bring the globals up to date with a new version of the program that made
+	 * them, without running it again. The functions and the methods of the
+	 * classes it declares take their new declarations in place, so the
+	 * closures, instances and bound methods holding them run the new code from
+	 * their next call. The functions, classes and variables the globals lack
+	 * are declared; the other statements are skipped and the globals keep
+	 * their values.
+	 *
+	 * A class whose superclass changed can not be updated in place: it is
+	 * reported and nothing is reloaded. The functions and classes shared with
+	 * the other forks of frozen globals are declared anew in these.
+	 */
+	public void reload(final List<Stmt> statements) {
+		for (final Stmt statement : statements) {
+			if (statement instanceof Stmt.Class) {
+				final Stmt.Class stmt = (Stmt.Class) statement;
+				final LoxClass klass = reloadable(stmt);
+				if (klass != null && !sameSuperclass(klass, stmt)) {
+					reporter.error(stmt.name, "Can't change the superclass of a class on reload.");
+				}
+			}
+		}
+		if (reporter.hadError) return;
+
+		startRun();
+		try {
+			for (final Stmt statement : statements) {
+				if (statement instanceof Stmt.Function) {
+					final Stmt.Function stmt = (Stmt.Function) statement;
+					final LoxFunction function = reloadable(stmt);
+					if (function != null) {
+						function.setDeclaration(stmt);
+					} else {
+						execute(stmt);
+					}
+				} else if (statement instanceof Stmt.Class) {
+					final Stmt.Class stmt = (Stmt.Class) statement;
+					final LoxClass klass = reloadable(stmt);
+					if (klass != null) {
+						reloadMethods(klass, stmt);
+					} else {
+						execute(stmt);
+					}
+				} else if (statement instanceof Stmt.Var) {
+					if (!globals.getValues().containsKey(((Stmt.Var) statement).name.lexeme)) execute(statement);
+				}
+			}
+		} catch (CompileError error) {
+			// Reported already, see LazyBody.
+		} catch (RuntimeError error) {
+			out.flush();
+			reporter.runtimeError(error);
+		} finally {
+			out.drain();
+		}
+	}
+
+	// The function of the globals the declaration updates in place, or null.
+	private LoxFunction reloadable(final Stmt.Function stmt) {
+		final String name = stmt.name.lexeme;
+		final Object value = globals.getAt(0, name);
+		// Declared in these globals under this name, not one a variable was given.
+		if (!(value instanceof LoxFunction) || ((LoxFunction) value).getClosure() != globals) return null;
+		final LoxFunction function = (LoxFunction) value;
+		return function.getDeclaration().name.lexeme.equals(name) ? function : null;
+	}
+
+	// The class of the globals the declaration updates in place, or null.
+	private LoxClass reloadable(final Stmt.Class stmt) {
+		final String name = stmt.name.lexeme;
+		final Object value = globals.getAt(0, name);
+		if (!(value instanceof LoxClass) || !globals.owns(name)) return null;
+		final LoxClass klass = (LoxClass) value;
+		return klass.name.equals(name) ? klass : null;
+	}
+
+	private static boolean sameSuperclass(final LoxClass klass, final Stmt.Class stmt) {
+		final LoxClass superclass = klass.getSuperclass();
+		if (stmt.superclass == null) return superclass == null;
+		return superclass != null && superclass.name.equals(stmt.superclass.name.lexeme);
+	}
+
+	private void reloadMethods(final LoxClass klass, final Stmt.Class stmt) {
+		final Map<String, LoxFunction> methods = klass.getMethods();
+		// The methods share the environment binding super, made as visitClassStmt does.
+		Environment closure = globals;
+		if (!methods.isEmpty()) {
+			closure = methods.values().iterator().next().getClosure();
+		} else if (klass.getSuperclass() != null) {
+			closure = new Environment(globals);
+			closure.define("super", klass.getSuperclass());
+		}
+
+		final java.util.Set<String> declared = new HashSet<>();
+		for (final Stmt.Function method : stmt.methods) {
+			final String name = method.name.lexeme;
+			declared.add(name);
+			final LoxFunction function = methods.get(name);
+			if (function != null) {
+				function.setDeclaration(method);
+			} else {
+				methods.put(name, new LoxFunction(method, closure, name.equals("init")));
+			}
+		}
+		methods.keySet().retainAll(declared);
+	}
+
+	private void startRun() {
+		cancelled = false;
+		steps = 0;
+		allocated = 0;
+		nextCheck = POLL_STEPS;
+		callLimit = maxDepth;
+		// A deep recursion of a past run does not keep its frames for the session.
+		if (frames.length > MAX_KEPT_FRAMES) {
+			frames = new LoxCallable[64];
+			frameLines = new int[64];
+		}
+		if (limits == null) return;
+
+		nextCheck = nextCheck(nextCheck);
+		if (limits.getMaxDepth() < callLimit) callLimit = limits.getMaxDepth();
+		timed = limits.getTimeoutNanos() != Long.MAX_VALUE;
+		deadline = System.nanoTime() + limits.getTimeoutNanos();
+	}
+
+	// Check right after the last step allowed.
+	private long nextCheck(final long poll) {
+		final long maxSteps = limits.getMaxSteps();
+		return maxSteps < poll ? maxSteps + 1 : poll;
+	}
+
+	/*
+	 * Count a step: an iteration of a loop or a call, where runs can be
+	 * stopped.
+	 */
+	private void step(final Token where) {
+		if (++steps >= nextCheck) checkLimits(where);
+	}
+
+	private void checkLimits(final Token where) {
+		nextCheck = steps + POLL_STEPS;
+		if (cancelled) {
+			throw new RuntimeError(where, "Run cancelled.");
+		}
+		if (limits == null) return;
+
+		if (steps > limits.getMaxSteps()) {
+			throw new RuntimeError(where, "Step limit exceeded.");
+		}
+		nextCheck = nextCheck(nextCheck);
+		if (timed && System.nanoTime() - deadline > 0) {
+			throw new RuntimeError(where, "Time limit exceeded.");
+		}
+		if (allocated > limits.getMaxAllocation()) {
+			throw new RuntimeError(where, "Allocation limit exceeded.");
 		}
 	}
 
 	@Override
 	public Object visitBinaryExpr(final Binary expr) {
+		if (expr.numeric) {
+			return visitNumericExpr(expr);
+		}
 		final Object left = evaluate(expr.left);
-		final Object right = evaluate(expr.right);
+		return binary(expr, left, evaluate(expr.right));
+	}
 
+	private Object binary(final Binary expr, final Object left, final Object right) {
 		switch (expr.operator.type) {
 		case GREATER:
 			checkNumberOperands(expr.operator, left, right);
@@ -91,14 +398,14 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 			if (left instanceof Double && right instanceof Double) {
 				return (double) left + (double) right;
 			}
-			if (left instanceof String && right instanceof String) {
-				return (String) left + (String) right;
+			if (Rope.isString(left) && Rope.isString(right)) {
+				return concat(left, right);
 			}
-			if (left instanceof Double && right instanceof String) {
-				return stringify(left) + (String) right;
+			if (left instanceof Double && Rope.isString(right)) {
+				return concat(stringify(left), right);
 			}
-			if (left instanceof String && right instanceof Double) {
-				return (String) left + stringify(right);
+			if (Rope.isString(left) && right instanceof Double) {
+				return concat(left, stringify(right));
 			}
 			throw new RuntimeError(expr.operator, "Operand must be two numbers or two strings");
 		case SLASH:
@@ -114,13 +421,73 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		return null;
 	}
 	
+	/*
+	 * An operation the TypeInference proved to have numbers on both sides: no
+	 * check, and the numeric operands are computed without boxing.
+	 */
+	private Object visitNumericExpr(final Binary expr) {
+		switch (expr.operator.type) {
+		case GREATER:
+			return evaluateNumber(expr.left) > evaluateNumber(expr.right);
+		case GREATER_EQUAL:
+			return evaluateNumber(expr.left) >= evaluateNumber(expr.right);
+		case LESS:
+			return evaluateNumber(expr.left) < evaluateNumber(expr.right);
+		case LESS_EQUAL:
+			return evaluateNumber(expr.left) <= evaluateNumber(expr.right);
+		default:
+			return evaluateNumber(expr);
+		}
+	}
+
+	private static boolean isArithmetic(final TokenType operator) {
+		return operator == TokenType.MINUS || operator == TokenType.PLUS || operator == TokenType.SLASH
+				|| operator == TokenType.STAR;
+	}
+
+	private Object concat(final Object left, final Object right) {
+		final Object result = Rope.concat(left, right);
+		allocated += result instanceof Rope ? ROPE_BYTES : 2L * ((CharSequence) result).length();
+		return result;
+	}
+
+	// A number evaluateNumber computes without boxing it.
+	private static boolean isUnboxed(final Expr expr) {
+		if (expr instanceof Expr.Variable) return ((Expr.Variable) expr).counter != Expr.NO_COUNTER;
+		return expr instanceof Binary && ((Binary) expr).numeric && isArithmetic(((Binary) expr).operator.type);
+	}
+
+	private double evaluateNumber(final Expr expr) {
+		if (expr instanceof Binary && ((Binary) expr).numeric) {
+			final Binary binary = (Binary) expr;
+			switch (binary.operator.type) {
+			case MINUS:
+				return evaluateNumber(binary.left) - evaluateNumber(binary.right);
+			case PLUS:
+				return evaluateNumber(binary.left) + evaluateNumber(binary.right);
+			case SLASH:
+				return evaluateNumber(binary.left) / evaluateNumber(binary.right);
+			case STAR:
+				return evaluateNumber(binary.left) * evaluateNumber(binary.right);
+			default:
+				break;
+			}
+		}
+		if (expr instanceof Expr.Variable && ((Expr.Variable) expr).counter != Expr.NO_COUNTER) {
+			return counterValues[counters - 1 - ((Expr.Variable) expr).counter];
+		}
+		return (double) evaluate(expr);
+	}
+
 	@Override
 	public Object visitCallExpr(Expr.Call expr) {
 		final Object callee = evaluate(expr.callee);
 		
-		final List<Object> arguments = new ArrayList<>();
+		final List<Object> arguments = new ArrayList<>(expr.arguments.size());
 		
-		expr.arguments.forEach(argument -> arguments.add(evaluate(argument)));
+		for (final Expr argument : expr.arguments) {
+			arguments.add(evaluate(argument));
+		}
 		
 		if (!(callee instanceof LoxCallable)) {
 			throw new RuntimeError(expr.paren, "Can only call functions and classes.");
@@ -134,7 +501,71 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 					arguments.size() + ".");
 		}
 		
-		return function.call(this, arguments);
+		step(expr.paren);
+		allocated += function instanceof LoxClass ? ENVIRONMENT_BYTES + INSTANCE_BYTES : ENVIRONMENT_BYTES;
+
+		if (expr.tail && function instanceof LoxFunction) {
+			// Made by the caller of the returning function, on the same Java frames.
+			return new TailCall((LoxFunction) function, arguments);
+		}
+		
+		if (depth == callLimit) {
+			throw new RuntimeError(expr.paren, "Stack overflow.");
+		}
+		if (depth == frames.length) {
+			frames = Arrays.copyOf(frames, depth * 2);
+			frameLines = Arrays.copyOf(frameLines, depth * 2);
+		}
+		frames[depth] = function;
+		frameLines[depth] = expr.paren.line;
+		depth++;
+		try {
+			return function.call(this, arguments);
+		} catch (RuntimeError error) {
+			// Taken by the innermost call only, while its frames are still there.
+			if (error.backtrace == null) error.backtrace = backtrace(error.token.line);
+			throw error;
+		} catch (StackOverflowError e) {
+			// The thread has a smaller stack than the maximum depth needs.
+			final RuntimeError error = new RuntimeError(expr.paren, "Stack overflow.");
+			error.backtrace = backtrace(expr.paren.line);
+			throw error;
+		} finally {
+			depth--;
+			frames[depth] = null;
+		}
+	}
+
+	/*
+	 * The function running a tail call is the one of the call it returns from,
+	 * which keeps the line its caller called from: the frame of the returning
+	 * function is gone.
+	 */
+	void replaceFrame(final LoxCallable function) {
+		if (depth == 0) return;
+		frames[depth - 1] = function;
+	}
+
+	/*
+	 * The line of each call up to the script, innermost first, without the
+	 * middle of deep recursions.
+	 */
+	private List<String> backtrace(final int line) {
+		final List<String> backtrace = new ArrayList<>();
+		for (int i = depth; i >= 0; i--) {
+			if (i == depth - BACKTRACE_ENDS && i > BACKTRACE_ENDS) {
+				backtrace.add("... " + (i - BACKTRACE_ENDS) + " more calls");
+				i = BACKTRACE_ENDS;
+			}
+			final int from = i == depth ? line : frameLines[i];
+			backtrace.add("[line " + from + "] in " + (i == 0 ? "script" : frameName(frames[i - 1])));
+		}
+		return backtrace;
+	}
+
+	private static String frameName(final LoxCallable function) {
+		if (function instanceof LoxFunction) return ((LoxFunction) function).getDeclaration().name.lexeme + "()";
+		return function.toString();
 	}
 	
 	@Override
@@ -151,6 +582,34 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		return evaluate(expr.expression);
 	}
 
+	/*
+	 * Every piece is evaluated once and appended to one builder, sized for the
+	 * text and a short value per expression.
+	 */
+	@Override
+	public Object visitInterpolationExpr(final Expr.Interpolation expr) {
+		final List<String> strings = expr.strings;
+		final List<Expr> expressions = expr.expressions;
+		int capacity = 16 * expressions.size();
+		for (int i = 0; i < strings.size(); i++) {
+			capacity += strings.get(i).length();
+		}
+
+		final StringBuilder builder = new StringBuilder(capacity);
+		builder.append(strings.get(0));
+		for (int i = 0; i < expressions.size(); i++) {
+			final Object value = evaluate(expressions.get(i));
+			if (value instanceof Double && Numbers.isSmallInteger((Double) value)) {
+				builder.append((long) (double) (Double) value);
+			} else {
+				builder.append(stringify(value));
+			}
+			builder.append(strings.get(i + 1));
+		}
+		allocated += 2L * builder.length();
+		return builder.toString();
+	}
+
 	@Override
 	public Object visitLiteralExpr(final Literal expr) {
 		return expr.value;
@@ -183,7 +642,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	
 	@Override
 	public Object visitSuperExpr(Super expr) {
-		final int distance = locals.get(expr);
+		final int distance = expr.depth;
 		final LoxClass superclass = (LoxClass)environment.getAt(distance, "super");
 		final LoxInstance object = (LoxInstance) environment.getAt(distance - 1, "this");
 		final LoxFunction method = superclass.findMethod(expr.method.lexeme);
@@ -195,7 +654,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	
 	@Override
 	public Object visitThisExpr(This expr) {
-		return lookUpVariable(expr.keyword, expr);
+		return lookUpVariable(expr.keyword, expr.depth);
 	}
 
 	@Override
@@ -217,12 +676,14 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
 	@Override
 	public Object visitVariableExpr(final Expr.Variable expr) {
-		return lookUpVariable(expr.name, expr);
+		if (expr.counter != Expr.NO_COUNTER) {
+			return counterValues[counters - 1 - expr.counter];
+		}
+		return lookUpVariable(expr.name, expr.depth);
 	}
 	
-	private Object lookUpVariable(final Token name, final Expr expr) {
-		final Integer distance = locals.get(expr);
-		if (distance != null) {
+	private Object lookUpVariable(final Token name, final int distance) {
+		if (distance != Expr.GLOBAL) {
 			return environment.getAt(distance, name.lexeme);
 		}
 		return globals.get(name);
@@ -248,9 +709,6 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		stmt.accept(this);
 	}
 	
-	public void resolve(final Expr expr, final int depth) {
-		locals.put(expr, depth);
-	}
 
 	public void executeBlock(final List<Stmt> statements, final Environment environment) {
 
@@ -259,9 +717,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		try {
 			this.environment = environment;
 
-			statements.forEach(statement -> {
+			for (final Stmt statement : statements) {
 				execute(statement);
-			});
+			}
 		} finally {
 			this.environment = previous;
 		}
@@ -269,6 +727,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
 	@Override
 	public Void visitBlockStmt(final Stmt.Block stmt) {
+		allocated += ENVIRONMENT_BYTES;
 		executeBlock(stmt.statements, new Environment(environment));
 		return null;
 	}
@@ -290,7 +749,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 			environment.define("super", superclass);
 		}
 
-		final Map<String, LoxFunction> methods = new HashMap<>();
+		final Map<String, LoxFunction> methods = Symbols.map();
 		for (final Stmt.Function method : stmt.methods) {
 			final LoxFunction function = new LoxFunction(method, environment, method.name.lexeme.equals("init"));
 			methods.put(method.name.lexeme, function);
@@ -332,9 +791,17 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
 	@Override
 	public Void visitPrintStmt(final Stmt.Print stmt) {
+		if (isUnboxed(stmt.expression)) {
+			out.println(evaluateNumber(stmt.expression));
+			return null;
+		}
 		final Object value = evaluate(stmt.expression);
 		checkUninitializedVariable(value, stmt.expression);
-		System.out.println(stringify(value));
+		if (value instanceof Double) {
+			out.println((double) (Double) value);
+		} else {
+			out.println(stringify(value));
+		}
 		return null;
 	}
 	
@@ -359,9 +826,103 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		return null;
 	}
 	
+	@Override
+	public Void visitCountedLoopStmt(final Stmt.CountedLoop stmt) {
+		final Environment previous = environment;
+		try {
+			environment = new Environment(previous);
+			execute(stmt.initializer);
+			// Pushed by every counted loop, see Resolver.visitCountedLoopStmt.
+			if (counters == counterValues.length) {
+				counterValues = Arrays.copyOf(counterValues, counters * 2);
+			}
+			counters++;
+			if (stmt.counted) {
+				count(stmt, environment.getAt(0, stmt.initializer.name.lexeme));
+			} else {
+				while (isTruthy(evaluate(stmt.condition))) {
+					step(stmt.condition.operator);
+					executeLoopBody(stmt, null);
+					evaluate(stmt.increment);
+				}
+			}
+		} finally {
+			counters--;
+			environment = previous;
+		}
+		return null;
+	}
+
+	/*
+	 * The variable is kept in the counter of the loop, where the body and the
+	 * limit read it as a double, see visitVariableExpr. It is neither assigned
+	 * nor captured, so its environment is never asked for it.
+	 */
+	private void count(final Stmt.CountedLoop stmt, final Object start) {
+		final int counter = counters - 1;
+		final Binary step = (Binary) stmt.increment.value;
+		final double delta = (double) ((Literal) step.right).value;
+		final boolean up = step.operator.type == TokenType.PLUS;
+		final TokenType comparison = stmt.condition.operator.type;
+		if (!(start instanceof Double)) {
+			// The comparison would fail with the operands evaluated.
+			evaluate(stmt.condition.right);
+			throw new RuntimeError(stmt.condition.operator, "Operand must be numbers");
+		}
+		counterValues[counter] = (double) start;
+		// Made once for all the iterations, when no closure can keep it.
+		Environment body = null;
+		if (stmt.shared) {
+			allocated += ENVIRONMENT_BYTES;
+			body = new Environment(environment);
+		}
+		for (;;) {
+			final Object limit = evaluate(stmt.condition.right);
+			if (!(limit instanceof Double)) {
+				throw new RuntimeError(stmt.condition.operator, "Operand must be numbers");
+			}
+			final double value = counterValues[counter];
+			final double bound = (double) limit;
+			final boolean more;
+			switch (comparison) {
+			case GREATER:
+				more = value > bound;
+				break;
+			case GREATER_EQUAL:
+				more = value >= bound;
+				break;
+			case LESS:
+				more = value < bound;
+				break;
+			default:
+				more = value <= bound;
+				break;
+			}
+			if (!more) return;
+			step(stmt.condition.operator);
+
+			executeLoopBody(stmt, body);
+			// Through the field, the body may have grown the counters.
+			counterValues[counter] = up ? value + delta : value - delta;
+		}
+	}
+
+	private void executeLoopBody(final Stmt.CountedLoop stmt, final Environment body) {
+		if (stmt.flat) {
+			for (final Stmt statement : ((Stmt.Block) stmt.body).statements) {
+				execute(statement);
+			}
+		} else if (body != null) {
+			executeBlock(((Stmt.Block) stmt.body).statements, body);
+		} else {
+			execute(stmt.body);
+		}
+	}
+
 	@Override
 	public Void visitWhileStmt(final While stmt) {
 		while (isTruthy(evaluate(stmt.condition))) {
+			step(stmt.keyword);
 			execute(stmt.body);
 		}
 		return null;
@@ -370,8 +931,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	@Override
 	public Object visitAssignExpr(final Expr.Assign expr) {
 		final Object value = evaluate(expr.value);
-		final Integer distance = locals.get(expr);
-		if (distance != null) {
+		final int distance = expr.depth;
+		if (distance != Expr.GLOBAL) {
 			environment.assignAt(distance, expr.name, value);
 		} else {
 			globals.assign(expr.name, value);
@@ -396,19 +957,20 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 			return false;
 		if (a == null)
 			return false;
+		// A concatenation equals the same characters as a plain string.
+		if (a instanceof Rope)
+			return ((Rope) a).equals(b);
+		if (b instanceof Rope)
+			return ((Rope) b).equals(a);
 
 		return a.equals(b);
 	}
 
-	private String stringify(final Object object) {
+	String stringify(final Object object) {
 		if (object == null)
 			return "nil";
 		if (object instanceof Double) {
-			String text = object.toString();
-			if (text.endsWith(".0")) {
-				text = text.substring(0, text.length() - 2);
-			}
-			return text;
+			return Numbers.format((Double) object);
 		}
 		return object.toString();
 	}
@@ -0,0 +1,83 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * The body of a function which was only pre-parsed. The parser keeps the tokens
+ * between the braces, the resolver keeps its scopes at the point of the
+ * declaration, and both passes are finished the first time the function is
+ * called.
+ */
+public class LazyBody {
+	private List<Token> tokens;
+	private Resolver.Deferred deferred;
+	// Programs are shared between threads, the body is published once complete.
+	private volatile List<Stmt> statements;
+
+	public LazyBody(final List<Token> tokens) {
+		this.tokens = tokens;
+	}
+
+	void defer(final Resolver.Deferred deferred) {
+		this.deferred = deferred;
+	}
+
+	/**
+	 * @param interpreter whose reporter gets the errors of the body, if this is
+	 *                    the first call, after the output printed before them.
+	 * @throws CompileError when the body has errors.
+	 */
+	public List<Stmt> get(final Interpreter interpreter, final Stmt.Function declaration) {
+		return get(interpreter.getReporter(), interpreter, declaration);
+	}
+
+	/**
+	 * @param reporter where the errors in the body are reported, if this is the
+	 *                 first call.
+	 * @throws CompileError when the body has errors.
+	 */
+	public List<Stmt> get(final ErrorReporter reporter, final Stmt.Function declaration) {
+		return get(reporter, null, declaration);
+	}
+
+	private List<Stmt> get(final ErrorReporter reporter, final Interpreter interpreter,
+			final Stmt.Function declaration) {
+		final List<Stmt> body = statements;
+		if (body != null) return body;
+
+		synchronized (this) {
+			if (statements == null) {
+				statements = compile(reporter, interpreter, declaration);
+				// The tokens and the scopes are not needed anymore.
+				tokens = null;
+				deferred = null;
+			}
+			return statements;
+		}
+	}
+
+	/*
+	 * The pre-parse checked the syntax already, the errors left are those of
+	 * the resolver. They are reported as compile errors of the run.
+	 */
+	private List<Stmt> compile(final ErrorReporter reporter, final Interpreter interpreter,
+			final Stmt.Function declaration) {
+		// Kept until the output printed before them is written.
+		final ByteArrayOutputStream errors = new ByteArrayOutputStream();
+		final ErrorReporter bodyReporter = new ErrorReporter(new PrintStream(errors, true));
+		final List<Stmt> body = new Parser(tokens, true, bodyReporter).parseBody();
+		if (!bodyReporter.hadError && deferred != null) {
+			deferred.resolve(bodyReporter, declaration.params, body);
+		}
+		if (bodyReporter.hadError) {
+			if (interpreter != null) interpreter.flush();
+			reporter.getErr().print(errors.toString());
+			reporter.hadError = true;
+			throw new CompileError(declaration.name, "Could not compile body of '" + declaration.name.lexeme + "'.");
+		}
+		new TypeInference().infer(declaration.params, body);
+		return body;
+	}
+}
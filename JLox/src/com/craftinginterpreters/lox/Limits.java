@@ -0,0 +1,63 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What one run of a {@link Context} may use before it is stopped with a
+ * runtime error: steps, time, call depth and memory. Nothing is limited by
+ * default.
+ *
+ * A step is an iteration of a loop or a call. The interpreter counts them and
+ * checks the limits every so many steps, and right at the step limit, so a run
+ * stops within about a thousand steps of its deadline or of going over its
+ * allocations. The allocations are estimated from the environments, instances
+ * and strings the run creates, not measured.
+ */
+public class Limits {
+	private long maxSteps = Long.MAX_VALUE;
+	private long timeoutNanos = Long.MAX_VALUE;
+	private int maxDepth = Integer.MAX_VALUE;
+	private long maxAllocation = Long.MAX_VALUE;
+
+	public void setMaxSteps(final long maxSteps) {
+		this.maxSteps = maxSteps;
+	}
+
+	/**
+	 * Stop runs which last longer, counted from their start.
+	 */
+	public void setTimeout(final long timeout, final TimeUnit unit) {
+		this.timeoutNanos = unit.toNanos(timeout);
+	}
+
+	/**
+	 * Nest calls less deeply than the engine allows, see
+	 * {@link LoxEngine#setMaxDepth}.
+	 */
+	public void setMaxDepth(final int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * @param maxAllocation roughly how many bytes a run may allocate.
+	 */
+	public void setMaxAllocation(final long maxAllocation) {
+		this.maxAllocation = maxAllocation;
+	}
+
+	long getMaxSteps() {
+		return maxSteps;
+	}
+
+	long getTimeoutNanos() {
+		return timeoutNanos;
+	}
+
+	int getMaxDepth() {
+		return maxDepth;
+	}
+
+	long getMaxAllocation() {
+		return maxAllocation;
+	}
+}
@@ -0,0 +1,193 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a program once per line of its input, like awk or perl -n: the line,
+ * without its terminator, is in the global "line". When printing, the value of
+ * "line" is printed after every run, like perl -p, so a script can rewrite it.
+ *
+ * The program is compiled once. The input is read through a large buffer over
+ * a channel and the output goes through a buffer flushed at the end, which the
+ * runs of the lines write to without flushing. In order, the globals persist
+ * from one line to the next, starting from those of the prelude of the pool.
+ * With more than one job, chunks of lines run in parallel in contexts of their
+ * own and their outputs are written in the order of the input, so the globals
+ * are only shared within a chunk: a script which counts or sums over the whole
+ * input must run in order.
+ */
+public class LineProcessor {
+	private static final int READ_BUFFER = 1 << 20;
+	private static final int WRITE_BUFFER = 1 << 16;
+	private static final int CHUNK_LINES = 4096;
+
+	private final ContextPool pool;
+	private final Program program;
+	private final boolean print;
+	private final int jobs;
+
+	/**
+	 * @param jobs 1 to run in order, or the number of chunks run in parallel.
+	 */
+	public LineProcessor(final ContextPool pool, final Program program, final boolean print, final int jobs) {
+		this.pool = pool;
+		this.program = program;
+		this.print = print;
+		this.jobs = jobs;
+	}
+
+	/**
+	 * @return 0, or the exit status of the first line which failed, after which
+	 *         nothing more is processed.
+	 */
+	public int process(final ReadableByteChannel input, final Charset charset, final OutputStream output)
+			throws IOException, InterruptedException {
+		final BufferedReader reader = new BufferedReader(Channels.newReader(input, charset.newDecoder(), READ_BUFFER),
+				READ_BUFFER);
+		final PrintStream out = new PrintStream(new BufferedOutputStreamSink(output), false, charset.name());
+		try {
+			return jobs <= 1 ? processInOrder(reader, out) : processInParallel(reader, out, charset);
+		} finally {
+			out.flush();
+		}
+	}
+
+	private int processInOrder(final BufferedReader reader, final PrintStream out) throws IOException {
+		final Context context = pool.acquire(out, System.err);
+		try {
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				final int status = run(context, line, out);
+				if (status != 0) return status;
+			}
+			return 0;
+		} finally {
+			out.flush();
+			pool.release(context);
+		}
+	}
+
+	private int run(final Context context, final String line, final PrintStream out) {
+		final Interpreter interpreter = context.getInterpreter();
+		interpreter.globals.define("line", line);
+		final int status = context.run(program);
+		if (status == 0 && print) out.println(interpreter.stringify(interpreter.globals.getValues().get("line")));
+		return status;
+	}
+
+	/*
+	 * Keep up to two chunks per job in flight, writing the oldest as soon as it
+	 * is done, so the memory stays bounded whatever the size of the input.
+	 */
+	private int processInParallel(final BufferedReader reader, final PrintStream out, final Charset charset)
+			throws IOException, InterruptedException {
+		final ExecutorService executor = Executors.newFixedThreadPool(jobs, pool.getEngine().threads("lines"));
+		final Deque<Future<Chunk>> inFlight = new ArrayDeque<>();
+		try {
+			for (;;) {
+				final List<String> lines = new ArrayList<>(CHUNK_LINES);
+				for (String line; lines.size() < CHUNK_LINES && (line = reader.readLine()) != null;) {
+					lines.add(line);
+				}
+				if (!lines.isEmpty()) {
+					inFlight.add(executor.submit(() -> runChunk(lines, charset)));
+				}
+				while (!inFlight.isEmpty() && (lines.isEmpty() || inFlight.size() >= 2 * jobs)) {
+					final Chunk chunk = inFlight.remove().get();
+					chunk.output.writeTo(out);
+					if (chunk.status != 0) return chunk.status;
+				}
+				if (lines.isEmpty()) return 0;
+			}
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private Chunk runChunk(final List<String> lines, final Charset charset) throws UnsupportedEncodingException {
+		final ByteArrayOutputStream output = new ByteArrayOutputStream(lines.size() * 64);
+		final PrintStream out = new PrintStream(output, false, charset.name());
+		final Context context = pool.acquire(out, System.err);
+		int status = 0;
+		try {
+			for (final String line : lines) {
+				status = run(context, line, out);
+				if (status != 0) break;
+			}
+		} finally {
+			pool.release(context);
+		}
+		out.flush();
+		return new Chunk(output, status);
+	}
+
+	private static class Chunk {
+		final ByteArrayOutputStream output;
+		final int status;
+
+		Chunk(final ByteArrayOutputStream output, final int status) {
+			this.output = output;
+			this.status = status;
+		}
+	}
+
+	/*
+	 * A BufferedOutputStream without the locks: the output of a processor is only
+	 * written by the thread calling process.
+	 */
+	private static class BufferedOutputStreamSink extends OutputStream {
+		private final OutputStream out;
+		private final byte[] buffer = new byte[WRITE_BUFFER];
+		private int count = 0;
+
+		BufferedOutputStreamSink(final OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			if (count == buffer.length) flushBuffer();
+			buffer[count++] = (byte) b;
+		}
+
+		@Override
+		public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+			if (length >= buffer.length) {
+				flushBuffer();
+				out.write(bytes, offset, length);
+				return;
+			}
+			if (length > buffer.length - count) flushBuffer();
+			System.arraycopy(bytes, offset, buffer, count, length);
+			count += length;
+		}
+
+		private void flushBuffer() throws IOException {
+			if (count > 0) out.write(buffer, 0, count);
+			count = 0;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			flushBuffer();
+			out.flush();
+		}
+	}
+}
@@ -1,12 +1,21 @@
 package com.craftinginterpreters.lox;
 
 import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 
@@ -17,102 +26,330 @@ import java.util.List;
  *
  */
 public class Lox {
-	private static final int APPLICATION_ERROR = 65;
+	public static final String VERSION = "0.2";
+
 	private static final int ILLEGAL_ARGUMENT_ERROR = 64;
-	private static final int APPLICATION_RUNTIME_ERROR = 70;
 
-	public static boolean hadError = false;
-	public static boolean hadRuntimeError = false;
+	// Only pre-parse function bodies, see LazyBody.
+	private static boolean lazyParsing = false;
+	// Where files are kept already resolved, see DiskCache.
+	private static DiskCache cache = null;
+	private static String cacheDir = null;
+	// Where the globals are saved after the script and restored from before it, see Snapshot.
+	private static Path snapshotOut = null;
+	private static Path snapshotIn = null;
+	// Run scripts for clients, or as a client, see Daemon.
+	private static int daemonPort = -1;
+	private static int connectPort = -1;
+	private static int workers = Runtime.getRuntime().availableProcessors();
+	private static int queueDepth = 64;
+	// How many compiled programs the engine keeps in memory, see ProgramCache.
+	private static int programs = 1024;
+	// Run before the scripts of the daemon, whose contexts all start from its globals.
+	private static Path prelude = null;
+	// Run many scripts on a number of threads, see Batch.
+	private static String batch = null;
+	// The threads of a batch, one per core by default.
+	private static int jobs = 0;
+	// Run the batch on worker processes instead, 0 for one per core, see Farm.
+	private static int processes = -1;
+	private static boolean worker = false;
+	// Run the script once per line of the input, printing the line after with -p, see LineProcessor.
+	private static boolean lineMode = false;
+	private static boolean printLines = false;
+
+	// Print where the arithmetic of the script could not be specialized, see TypeInference.
+	private static boolean typeReport = false;
+
+	// How deep Lox calls may nest, 0 when not given, see LoxEngine.setMaxDepth.
+	private static int maxDepth = 0;
+	// What each script may use, see Limits.
+	private static Limits limits = null;
+	private static final List<String> limitOptions = new ArrayList<>();
 
-	private static final Interpreter interpreter = new Interpreter();
+	// How much printed text is buffered before it is written, see OutputSink.
+	private static int outputBuffer = OutputSink.DEFAULT_THRESHOLD;
+
+	// The command line runs a single context, embedders make their own, see LoxEngine.
+	private static Context context;
 
 	public static void main(final String[] args) throws IOException {
-		if (args.length > 1) {
-			System.out.println("Usage: jlox [script]");
-			System.exit(ILLEGAL_ARGUMENT_ERROR);
-		} else if (args.length == 1) {
-			runFile(args[0]);
+		int index = 0;
+		while (index < args.length && args[index].startsWith("-")) {
+			final String option = args[index++];
+			if (option.equals("-n") || option.equals("-p")) {
+				lineMode = true;
+				printLines = option.equals("-p");
+			} else if (option.equals("--lazy")) {
+				lazyParsing = true;
+			} else if (option.equals("--cache-dir") && index < args.length) {
+				cacheDir = args[index];
+				cache = new DiskCache(Paths.get(args[index++]));
+			} else if (option.equals("--snapshot-out") && index < args.length) {
+				snapshotOut = Paths.get(args[index++]);
+			} else if (option.equals("--snapshot-in") && index < args.length) {
+				snapshotIn = Paths.get(args[index++]);
+			} else if (option.equals("--daemon") && index < args.length) {
+				daemonPort = Integer.parseInt(args[index++]);
+			} else if (option.equals("--connect") && index < args.length) {
+				connectPort = Integer.parseInt(args[index++]);
+			} else if (option.equals("--workers") && index < args.length) {
+				workers = Integer.parseInt(args[index++]);
+			} else if (option.equals("--queue") && index < args.length) {
+				queueDepth = Integer.parseInt(args[index++]);
+			} else if (option.equals("--programs") && index < args.length) {
+				programs = Integer.parseInt(args[index++]);
+			} else if (option.equals("--prelude") && index < args.length) {
+				prelude = Paths.get(args[index++]);
+			} else if (option.equals("--batch") && index < args.length) {
+				batch = args[index++];
+			} else if (option.equals("--jobs") && index < args.length) {
+				jobs = Integer.parseInt(args[index++]);
+			} else if (option.equals("--processes") && index < args.length) {
+				processes = Integer.parseInt(args[index++]);
+			} else if (option.equals("--output-buffer") && index < args.length) {
+				outputBuffer = Integer.parseInt(args[index++]);
+			} else if (option.equals("--max-depth") && index < args.length) {
+				maxDepth = Integer.parseInt(args[index++]);
+			} else if (option.equals("--max-steps") && index < args.length) {
+				limits().setMaxSteps(Long.parseLong(args[index]));
+				limitOptions.addAll(Arrays.asList(option, args[index++]));
+			} else if (option.equals("--timeout") && index < args.length) {
+				limits().setTimeout(Long.parseLong(args[index]), TimeUnit.MILLISECONDS);
+				limitOptions.addAll(Arrays.asList(option, args[index++]));
+			} else if (option.equals("--max-alloc") && index < args.length) {
+				limits().setMaxAllocation(Long.parseLong(args[index]));
+				limitOptions.addAll(Arrays.asList(option, args[index++]));
+			} else if (option.equals("--types")) {
+				typeReport = true;
+			} else if (option.equals("--worker")) {
+				worker = true;
+			} else {
+				usage();
+			}
+		}
+
+		// Lox calls nest on the Java stack, the main thread's is too small for deep recursion.
+		// The modes whose scripts run on pools of threads, or in a daemon, run none on this one,
+		// a worker of a farm runs its scripts on this one with the depth of a pool.
+		final boolean pooled = lineMode || daemonPort >= 0 || connectPort >= 0 || batch != null;
+		final int first = index;
+		final Throwable[] failure = new Throwable[1];
+		final Thread thread = new Thread(null, () -> {
+			try {
+				start(args, first);
+			} catch (IOException | RuntimeException | Error e) {
+				failure[0] = e;
+			}
+		}, "main-lox", pooled ? 0 : LoxEngine.stackSize(maxDepth(worker)));
+		thread.start();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (failure[0] instanceof IOException)
+			throw (IOException) failure[0];
+		if (failure[0] instanceof RuntimeException)
+			throw (RuntimeException) failure[0];
+		if (failure[0] != null)
+			throw (Error) failure[0];
+	}
+
+	private static void start(final String[] args, final int index) throws IOException {
+		if (lineMode) {
+			if (args.length - index < 1)
+				usage();
+			System.exit(processLines(args[index], Arrays.asList(args).subList(index + 1, args.length)));
+		}
+
+		if (args.length - index > 1 || (snapshotOut != null && args.length - index == 0)) {
+			usage();
+		}
+
+		if (daemonPort >= 0) {
+			new Daemon(pool(workers), workers, queueDepth, daemonPort).serve();
+			return;
+		}
+
+		if (worker) {
+			// The standard output carries the replies to the coordinator.
+			System.setOut(System.err);
+			Farm.serve(new Batch(pool(1), 1));
+			return;
+		}
+
+		if (batch != null) {
+			if (args.length - index != 0)
+				usage();
+			try {
+				if (processes >= 0) {
+					final Farm farm = new Farm(Farm.command(workerOptions()), processes);
+					System.exit(farm.run(Batch.scripts(batch), System.out));
+				}
+				final int threads = jobs > 0 ? jobs : Runtime.getRuntime().availableProcessors();
+				final Batch runner = new Batch(pool(threads), threads);
+				System.exit(runner.run(Batch.scripts(batch), System.out));
+			} catch (InterruptedException e) {
+				System.exit(ErrorReporter.APPLICATION_RUNTIME_ERROR);
+			}
+		}
+
+		if (connectPort >= 0) {
+			if (args.length - index != 1)
+				usage();
+			System.exit(Daemon.connect(connectPort, Paths.get(args[index])));
+		}
+
+		// Lines typed at the prompt are not worth keeping on disk.
+		final boolean script = args.length - index == 1;
+		final LoxEngine engine = new LoxEngine(lazyParsing, script ? cache : null);
+		engine.setMaxDepth(maxDepth(false));
+		engine.setLimits(limits);
+		context = engine.newContext(System.out, System.err);
+		context.getInterpreter().setOut(new OutputSink(System.out, outputBuffer));
+
+		if (snapshotIn != null) {
+			Snapshot.read(context.getInterpreter(), snapshotIn);
+		}
+
+		if (script) {
+			runFile(args[index]);
 		} else {
 			runPromt();
 		}
 	}
 
-	private static void runFile(final String path) throws IOException {
-		final byte[] bytes = Files.readAllBytes(Paths.get(path));
-		run(new String(bytes, Charset.defaultCharset()));
-		if (hadError)
-			System.exit(APPLICATION_ERROR);
-		if (hadRuntimeError)
-			System.exit(APPLICATION_RUNTIME_ERROR);
+	/*
+	 * The contexts of the daemon and of batches, which start from the globals of
+	 * the prelude.
+	 */
+	private static ContextPool pool(final int size) throws IOException {
+		final LoxEngine engine = new LoxEngine(lazyParsing, cache, new ProgramCache(programs, 64L * 1024 * 1024));
+		// Each thread of the pool reserves the stack of the depth, only a deep one asked for is worth it.
+		engine.setMaxDepth(maxDepth(true));
+		Program preludeProgram = null;
+		if (prelude != null) {
+			final String source = new String(Files.readAllBytes(prelude), Charset.defaultCharset());
+			preludeProgram = engine.compile(source, new ErrorReporter(System.err));
+			if (preludeProgram == null)
+				System.exit(ErrorReporter.APPLICATION_ERROR);
+		}
+		final ContextPool pool;
+		try {
+			pool = new ContextPool(engine, preludeProgram, size);
+		} catch (IllegalStateException e) {
+			System.err.println(e.getMessage());
+			System.exit(ErrorReporter.APPLICATION_ERROR);
+			return null;
+		}
+		// The prelude is trusted, the scripts are limited.
+		engine.setLimits(limits);
+		return pool;
 	}
 
-	private static void runPromt() throws IOException {
-		try (final InputStreamReader input = new InputStreamReader(System.in);
-				final BufferedReader reader = new BufferedReader(input)) {
-			for (;;) {
-				System.out.print("> ");
-				final String line = reader.readLine();
-				if (line == null)
-					break;
-				run(line);
-				hadError = false;
-			}
-		}
-//		final InputStreamReader input = new InputStreamReader(System.in);
-//		final BufferedReader reader = new BufferedReader(input);
-//		for (;;) {
-//			System.out.print("> ");
-//			final String line = reader.readLine();
-//			if (line == null) break;
-//			run(line);
-//			hadError = false;
-//		}
-//		input.close();
-//		reader.close();
+	private static int maxDepth(final boolean pooled) {
+		if (maxDepth > 0)
+			return maxDepth;
+		return pooled ? LoxEngine.POOLED_MAX_DEPTH : LoxEngine.DEFAULT_MAX_DEPTH;
 	}
 
-	private static void run(final String source) {
+	private static Limits limits() {
+		if (limits == null)
+			limits = new Limits();
+		return limits;
+	}
 
-		if (hadError == true)
-			System.exit(APPLICATION_ERROR);
+	private static int processLines(final String script, final List<String> inputs) throws IOException {
+		final ContextPool pool = pool(Math.max(1, jobs));
+		final String source = new String(Files.readAllBytes(Paths.get(script)), Charset.defaultCharset());
+		final Program program = pool.getEngine().compile(source, new ErrorReporter(System.err));
+		if (program == null)
+			return ErrorReporter.APPLICATION_ERROR;
 
-		final Scanner scanner = new Scanner(source);
-		final List<Token> tokens = scanner.scanTokens();
-		final Parser parser = new Parser(tokens);
-		final List<Stmt> statements = parser.parse();
+		final LineProcessor processor = new LineProcessor(pool, program, printLines, Math.max(1, jobs));
+		final FileOutputStream out = new FileOutputStream(FileDescriptor.out);
+		try {
+			if (inputs.isEmpty())
+				return processor.process(Channels.newChannel(System.in), Charset.defaultCharset(), out);
+			for (final String input : inputs) {
+				try (final FileChannel channel = FileChannel.open(Paths.get(input), StandardOpenOption.READ)) {
+					final int status = processor.process(channel, Charset.defaultCharset(), out);
+					if (status != 0)
+						return status;
+				}
+			}
+			return 0;
+		} catch (InterruptedException e) {
+			return ErrorReporter.APPLICATION_RUNTIME_ERROR;
+		}
+	}
 
-		if (hadError)
-			return;
-		
-		final Resolver resolver = new Resolver(interpreter);
-		resolver.resolve(statements);
-		
-		// Stop if there was a resolution error
-		if (hadError)
-			return;
-		
-		interpreter.interpret(statements);
+	private static List<String> workerOptions() {
+		final List<String> options = new ArrayList<>();
+		if (lazyParsing)
+			options.add("--lazy");
+		if (cacheDir != null)
+			options.addAll(Arrays.asList("--cache-dir", cacheDir));
+		if (prelude != null)
+			options.addAll(Arrays.asList("--prelude", prelude.toAbsolutePath().toString()));
+		options.addAll(Arrays.asList("--programs", Integer.toString(programs)));
+		if (maxDepth > 0)
+			options.addAll(Arrays.asList("--max-depth", Integer.toString(maxDepth)));
+		options.addAll(limitOptions);
+		return options;
 	}
 
-	public static void error(final int line, final String message) {
-		report(line, "", message);
+	private static void usage() {
+		System.out.println("Usage: jlox [--lazy] [--cache-dir dir] [--snapshot-in file] [--snapshot-out file] [--output-buffer n] [--max-depth n] [--max-steps n] [--timeout ms] [--max-alloc bytes] [--types] [script]");
+		System.out.println("       jlox [--lazy] [--workers n] [--queue n] [--programs n] [--prelude file] --daemon port");
+		System.out.println("       jlox --connect port script");
+		System.out.println("       jlox -n|-p [--jobs n] [--prelude file] script [file...]");
+		System.out.println("       jlox [--lazy] [--cache-dir dir] [--jobs n | --processes n] [--prelude file] --batch dir|glob|manifest");
+		System.exit(ILLEGAL_ARGUMENT_ERROR);
 	}
 
-	private static void report(final int line, final String where, final String message) {
-		System.err.println("[line " + line + "] Error" + where + ": " + message);
-		hadError = true;
+	private static void runFile(final String path) throws IOException {
+		final byte[] bytes = Files.readAllBytes(Paths.get(path));
+		final String source = new String(bytes, Charset.defaultCharset());
+		if (typeReport)
+			reportTypes(source);
+		final int status = context.eval(source);
+		context.getInterpreter().flush();
+		if (status != 0)
+			System.exit(status);
+		if (snapshotOut != null)
+			Snapshot.write(context.getInterpreter(), snapshotOut);
 	}
 
-	public static void error(final Token token, final String message) {
-		if (token.type == TokenType.EOF) {
-			report(token.line, " at end", message);
-		} else {
-			report(token.line, " at '" + token.lexeme + "'", message);
-		}
+	/*
+	 * The engine keeps no report, the script is compiled once more, whole, for
+	 * it.
+	 */
+	private static void reportTypes(final String source) {
+		final ErrorReporter reporter = new ErrorReporter(System.err);
+		final List<Stmt> statements = new Parser(new Scanner(source, reporter).scanTokens(), false, reporter).parse();
+		if (reporter.hadError)
+			return;
+		new Resolver(reporter).resolve(statements);
+		if (reporter.hadError)
+			return;
+		final TypeInference inference = new TypeInference();
+		inference.infer(statements);
+		inference.report(System.err);
 	}
 
-	public static void runtimeError(final RuntimeError error) {
-		System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
-		hadRuntimeError = true;
+	private static void runPromt() throws IOException {
+		try (final InputStreamReader input = new InputStreamReader(System.in);
+				final BufferedReader reader = new BufferedReader(input)) {
+			for (;;) {
+				System.out.print("> ");
+				final String line = reader.readLine();
+				if (line == null)
+					break;
+				context.eval(line);
+				context.getInterpreter().flush();
+			}
+		}
 	}
 }
@@ -0,0 +1,80 @@
+package com.craftinginterpreters.lox;
+
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.script.Bindings;
+
+/**
+ * The globals of a {@link Context} seen as the bindings of a script engine.
+ * Reads and writes go straight to the global environment, so values put by
+ * Java are visible to the next script and the declarations of a script are
+ * visible to Java without copying.
+ */
+public class LoxBindings extends AbstractMap<String, Object> implements Bindings {
+	private final Context context;
+	private final Map<String, Object> values;
+
+	LoxBindings(final Context context) {
+		this.context = context;
+		this.values = context.getInterpreter().globals.getValues();
+	}
+
+	Context getContext() {
+		return context;
+	}
+
+	@Override
+	public Object put(final String name, final Object value) {
+		checkKey(name);
+		return values.put(Symbols.intern(name), toLox(value));
+	}
+
+	@Override
+	public Object get(final Object key) {
+		checkKey(key);
+		return toJava(values.get(Symbols.intern((String) key)));
+	}
+
+	@Override
+	public boolean containsKey(final Object key) {
+		checkKey(key);
+		return values.containsKey(Symbols.intern((String) key));
+	}
+
+	@Override
+	public Object remove(final Object key) {
+		checkKey(key);
+		return values.remove(Symbols.intern((String) key));
+	}
+
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+		return values.entrySet();
+	}
+
+	// The contract of Bindings.
+	private static void checkKey(final Object key) {
+		if (key == null) throw new NullPointerException("key can not be null");
+		if (!(key instanceof String)) throw new ClassCastException("key should be a String");
+		if (((String) key).isEmpty()) throw new IllegalArgumentException("key can not be empty");
+	}
+
+	/**
+	 * @return the value as Java sees it: a concatenated Lox string is flattened.
+	 */
+	static Object toJava(final Object value) {
+		return value instanceof Rope ? value.toString() : value;
+	}
+
+	/**
+	 * @return the value as Lox sees it: every Java number becomes a double and
+	 *         every Java text a string.
+	 */
+	static Object toLox(final Object value) {
+		if (value instanceof Number && !(value instanceof Double)) return ((Number) value).doubleValue();
+		if (value instanceof Character || value instanceof StringBuilder) return value.toString();
+		return value;
+	}
+}
@@ -0,0 +1,135 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compiles scripts into programs which are shared by every {@link Context} of
+ * the engine. An engine can be used by many threads at once, each running its
+ * own contexts.
+ */
+public class LoxEngine {
+	// How deep Lox calls may nest by default, a hundred times what the default Java stack holds.
+	public static final int DEFAULT_MAX_DEPTH = 100_000;
+	// How deep by default in the threads of pools, which are many: a stack of about 8 MB each.
+	public static final int POOLED_MAX_DEPTH = 4_000;
+	// About the Java stack a Lox call with a small body takes.
+	private static final long STACK_PER_CALL = 2048;
+
+	private final boolean lazy;
+	private final DiskCache diskCache;
+	private final ProgramCache programs;
+	private volatile int maxDepth = DEFAULT_MAX_DEPTH;
+	private volatile Limits limits = null;
+
+	public LoxEngine() {
+		this(false, null);
+	}
+
+	/**
+	 * @param lazy      only pre-parse function bodies, see {@link LazyBody}.
+	 * @param diskCache where compiled programs are kept between runs, or null.
+	 */
+	public LoxEngine(final boolean lazy, final DiskCache diskCache) {
+		this(lazy, diskCache, new ProgramCache(1024, 64L * 1024 * 1024));
+	}
+
+	/**
+	 * @param programs the programs kept in memory.
+	 */
+	public LoxEngine(final boolean lazy, final DiskCache diskCache, final ProgramCache programs) {
+		this.lazy = lazy;
+		this.diskCache = diskCache;
+		this.programs = programs;
+	}
+
+	/**
+	 * Scan, parse and resolve the source, unless it was compiled before.
+	 * 
+	 * @return the program, or null when errors were reported.
+	 */
+	public Program compile(final String source, final ErrorReporter reporter) {
+		final Program program = programs.get(source);
+		if (program != null) return program;
+
+		List<Stmt> statements = diskCache != null ? diskCache.load(source) : null;
+		if (statements == null) {
+			// Cached programs are written whole, so their functions are never lazy.
+			final Scanner scanner = new Scanner(source, reporter);
+			final List<Token> tokens = scanner.scanTokens();
+			final Parser parser = new Parser(tokens, lazy && diskCache == null, reporter);
+			statements = parser.parse();
+
+			if (reporter.hadError)
+				return null;
+
+			final Resolver resolver = new Resolver(reporter);
+			resolver.resolve(statements);
+
+			// Stop if there was a resolution error
+			if (reporter.hadError)
+				return null;
+
+			new TypeInference().infer(statements);
+
+			if (diskCache != null)
+				diskCache.store(source, statements, reporter);
+		}
+
+		return programs.put(source, new Program(statements));
+	}
+
+	public ProgramCache getPrograms() {
+		return programs;
+	}
+
+	/**
+	 * Limit how deep the calls of the contexts created from now on may nest,
+	 * past which they raise a runtime error.
+	 */
+	public void setMaxDepth(final int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * @param limits what each run of the contexts created from now on may use,
+	 *               or null for no limits.
+	 */
+	public void setLimits(final Limits limits) {
+		this.limits = limits;
+	}
+
+	public Limits getLimits() {
+		return limits;
+	}
+
+	/**
+	 * @return the Java stack a thread needs to reach the maximum depth.
+	 */
+	public static long stackSize(final int maxDepth) {
+		return maxDepth * STACK_PER_CALL;
+	}
+
+	/**
+	 * @return a factory of threads whose stack holds calls nested up to the
+	 *         maximum depth, for the threads running contexts.
+	 */
+	public ThreadFactory threads(final String name) {
+		final AtomicInteger count = new AtomicInteger();
+		return task -> new Thread(null, task, name + "-" + count.incrementAndGet(), stackSize(maxDepth));
+	}
+
+	/**
+	 * @param out where the print statements of the context write.
+	 * @param err where the errors of the context are reported.
+	 */
+	public Context newContext(final PrintStream out, final PrintStream err) {
+		return new Context(this, out, err);
+	}
+}
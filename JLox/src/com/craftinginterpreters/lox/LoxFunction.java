@@ -4,34 +4,60 @@ import java.util.List;
 
 public class LoxFunction implements LoxCallable {
 	
-	private final Stmt.Function declaration;
+	// Replaced when the program is reloaded, see Interpreter#reload.
+	private volatile Stmt.Function declaration;
 	private final Environment closure;
 	private final boolean isInitializer;
+	// The method a bound function was made of, whose declaration it runs.
+	private final LoxFunction method;
 	
 	public LoxFunction(final Stmt.Function declaration, final Environment closure, final boolean isInitializer) {
+		this(declaration, closure, isInitializer, null);
+	}
+
+	private LoxFunction(final Stmt.Function declaration, final Environment closure, final boolean isInitializer,
+			final LoxFunction method) {
 		this.isInitializer = isInitializer;
 		this.declaration = declaration;
 		this.closure = closure;
+		this.method = method;
 	}
 	
 	public LoxFunction bind(final LoxInstance instance) {
 		final Environment environment = new Environment(closure);
 		environment.define("this", instance);
-		return new LoxFunction(declaration, environment, isInitializer);
+		return new LoxFunction(declaration, environment, isInitializer, method != null ? method : this);
 	}
 
 	@Override
 	public int arity() {
-		return declaration.params.size();
+		return getDeclaration().params.size();
 	}
 	
 	@Override
 	public String toString() {
-		return "<fn " + declaration.name.lexeme + ">";
+		return "<fn " + getDeclaration().name.lexeme + ">";
 	}
 
+	/**
+	 * Calls made by return statements come back here as a {@link TailCall}
+	 * and are made in turn, so that functions calling each other from their
+	 * return statements run in a loop instead of growing the stack.
+	 */
 	@Override
 	public Object call(final Interpreter interpreter, final List<Object> arguments) {
+		Object result = invoke(interpreter, arguments);
+		while (result instanceof TailCall) {
+			final TailCall next = (TailCall) result;
+			interpreter.replaceFrame(next.function);
+			result = next.function.invoke(interpreter, next.arguments);
+		}
+		return result;
+	}
+
+	private Object invoke(final Interpreter interpreter, final List<Object> arguments) {
+		// Read once, a reload during the call does not mix two declarations.
+		final Stmt.Function declaration = getDeclaration();
 		final Environment environment = new Environment(closure);
 		
 		for (int i = 0; i < declaration.params.size(); i++) {
@@ -39,7 +65,7 @@ public class LoxFunction implements LoxCallable {
 		}
 		
 		try {
-			interpreter.executeBlock(declaration.body, environment);
+			interpreter.executeBlock(body(interpreter, declaration), environment);
 		} catch (final Return returnValue) {
 			if (isInitializer) return closure.getAt(0, "this");
 			return returnValue.value;
@@ -49,7 +75,26 @@ public class LoxFunction implements LoxCallable {
 		return null;
 	}
 
+	private static List<Stmt> body(final Interpreter interpreter, final Stmt.Function declaration) {
+		if (declaration.lazyBody != null) {
+			return declaration.lazyBody.get(interpreter, declaration);
+		}
+		return declaration.body;
+	}
+
 	public Environment getClosure() {
 		return closure;
 	}
+
+	public Stmt.Function getDeclaration() {
+		return method != null ? method.declaration : declaration;
+	}
+
+	void setDeclaration(final Stmt.Function declaration) {
+		this.declaration = declaration;
+	}
+
+	public boolean isInitializer() {
+		return isInitializer;
+	}
 }
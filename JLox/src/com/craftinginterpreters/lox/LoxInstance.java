@@ -1,11 +1,10 @@
 package com.craftinginterpreters.lox;
 
-import java.util.HashMap;
 import java.util.Map;
 
 public class LoxInstance {
 	private LoxClass klass;
-	private final Map<String, Object> fields = new HashMap<>();
+	private final Map<String, Object> fields = Symbols.map();
 	
 	public LoxInstance(final LoxClass klass) {
 		this.klass = klass;
@@ -30,4 +29,12 @@ public class LoxInstance {
 	public String toString() {
 		return klass.name + " instance";
 	}
+
+	public LoxClass getKlass() {
+		return klass;
+	}
+
+	public Map<String, Object> getFields() {
+		return fields;
+	}
 }
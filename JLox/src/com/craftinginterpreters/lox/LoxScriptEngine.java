@@ -0,0 +1,323 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.Invocable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+
+/**
+ * A JSR-223 engine running Lox. The engine scope of its default script context
+ * is a {@link LoxBindings}, the globals of one Lox {@link Context}, so that the
+ * declarations of one evaluation are seen by the next and by
+ * {@link #invokeFunction(String, Object...)}. Other bindings are copied into
+ * the globals of a new context before a run and copied back after it.
+ *
+ * Compiled scripts are programs of the shared {@link LoxEngine}: evaluating
+ * one again, or evaluating the same source again, does not compile it again.
+ * Errors are thrown as {@link ScriptException}s instead of being printed.
+ */
+public class LoxScriptEngine extends AbstractScriptEngine implements Compilable, Invocable {
+	private final ScriptEngineFactory factory;
+	private final LoxEngine engine;
+
+	LoxScriptEngine(final ScriptEngineFactory factory, final LoxEngine engine) {
+		this.factory = factory;
+		this.engine = engine;
+		context.setBindings(createBindings(), ScriptContext.ENGINE_SCOPE);
+	}
+
+	@Override
+	public Bindings createBindings() {
+		return new LoxBindings(engine.newContext(System.out, System.err));
+	}
+
+	@Override
+	public ScriptEngineFactory getFactory() {
+		return factory;
+	}
+
+	@Override
+	public Object eval(final String script, final ScriptContext context) throws ScriptException {
+		return run(compileProgram(script, context), context);
+	}
+
+	@Override
+	public Object eval(final Reader reader, final ScriptContext context) throws ScriptException {
+		return eval(read(reader), context);
+	}
+
+	@Override
+	public CompiledScript compile(final String script) throws ScriptException {
+		final Program program = compileProgram(script, context);
+		return new CompiledScript() {
+			@Override
+			public Object eval(final ScriptContext context) throws ScriptException {
+				return run(program, context);
+			}
+
+			@Override
+			public ScriptEngine getEngine() {
+				return LoxScriptEngine.this;
+			}
+		};
+	}
+
+	@Override
+	public CompiledScript compile(final Reader script) throws ScriptException {
+		return compile(read(script));
+	}
+
+	private Program compileProgram(final String source, final ScriptContext context) throws ScriptException {
+		final ByteArrayOutputStream errors = new ByteArrayOutputStream();
+		final Program program = engine.compile(source, new ErrorReporter(utf8(errors)));
+		if (program == null) throw new ScriptException(text(errors), fileName(context), -1);
+		return program;
+	}
+
+	/*
+	 * Statements have no value, so a run always evaluates to null.
+	 */
+	private Object run(final Program program, final ScriptContext context) throws ScriptException {
+		final Bindings bindings = context.getBindings(ScriptContext.ENGINE_SCOPE);
+		final Context lox = contextOf(bindings);
+
+		final ByteArrayOutputStream errors = new ByteArrayOutputStream();
+		final PrintStream out = utf8(new WriterOutputStream(context.getWriter()));
+		lox.redirect(out, utf8(errors));
+		final int status;
+		try {
+			status = lox.run(program);
+		} finally {
+			out.flush();
+			if (!(bindings instanceof LoxBindings)) copyBack(lox, bindings);
+		}
+
+		if (status != 0) {
+			final RuntimeError error = lox.getReporter().getLastRuntimeError();
+			if (error == null) throw new ScriptException(text(errors));
+			throw new ScriptException(error.getMessage(), fileName(context), error.token.line);
+		}
+		return null;
+	}
+
+	private Context contextOf(final Bindings bindings) {
+		if (bindings instanceof LoxBindings) return ((LoxBindings) bindings).getContext();
+
+		final Context lox = engine.newContext(System.out, System.err);
+		if (bindings != null) {
+			for (final Map.Entry<String, Object> entry : bindings.entrySet()) {
+				lox.getInterpreter().globals.define(Symbols.intern(entry.getKey()), LoxBindings.toLox(entry.getValue()));
+			}
+		}
+		return lox;
+	}
+
+	private static void copyBack(final Context lox, final Bindings bindings) {
+		if (bindings == null) return;
+		final Interpreter interpreter = lox.getInterpreter();
+		for (final Map.Entry<String, Object> entry : interpreter.globals.getValues().entrySet()) {
+			if (interpreter.getNativeName(entry.getValue()) != null) continue;
+			bindings.put(entry.getKey(), LoxBindings.toJava(entry.getValue()));
+		}
+	}
+
+	@Override
+	public Object invokeFunction(final String name, final Object... args) throws ScriptException, NoSuchMethodException {
+		final Object function = context.getBindings(ScriptContext.ENGINE_SCOPE).get(name);
+		if (!(function instanceof LoxCallable)) throw new NoSuchMethodException("No function '" + name + "'.");
+		return call((LoxCallable) function, args);
+	}
+
+	@Override
+	public Object invokeMethod(final Object thiz, final String name, final Object... args)
+			throws ScriptException, NoSuchMethodException {
+		final Object method = method(thiz, name);
+		if (method == null) throw new NoSuchMethodException("No method '" + name + "' in " + thiz + ".");
+		return call((LoxCallable) method, args);
+	}
+
+	private static Object method(final Object thiz, final String name) {
+		if (!(thiz instanceof LoxInstance)) throw new IllegalArgumentException("Not a Lox instance: " + thiz);
+		try {
+			final Object method = ((LoxInstance) thiz).get(new Token(TokenType.IDENTIFIER, Symbols.intern(name), null, 0));
+			return method instanceof LoxCallable ? method : null;
+		} catch (RuntimeError e) {
+			return null;
+		}
+	}
+
+	/*
+	 * Call a function of a script in the context of the engine scope, without
+	 * compiling anything.
+	 */
+	private Object call(final LoxCallable function, final Object[] args) throws ScriptException {
+		final Object[] values = args != null ? args : new Object[0];
+		if (values.length != function.arity()) {
+			throw new ScriptException("Expected " + function.arity() + " arguments but got " + values.length + ".");
+		}
+		final List<Object> arguments = new ArrayList<>(values.length);
+		for (final Object value : values) {
+			arguments.add(LoxBindings.toLox(value));
+		}
+
+		final Context lox = contextOf(context.getBindings(ScriptContext.ENGINE_SCOPE));
+		final PrintStream out = utf8(new WriterOutputStream(context.getWriter()));
+		lox.redirect(out, utf8(new ByteArrayOutputStream()));
+		try {
+			return LoxBindings.toJava(lox.call(function, arguments));
+		} catch (RuntimeError error) {
+			throw new ScriptException(error.getMessage(), fileName(context), error.token.line);
+		} finally {
+			lox.getInterpreter().flush();
+			out.flush();
+		}
+	}
+
+	@Override
+	public <T> T getInterface(final Class<T> type) {
+		return implement(type, null);
+	}
+
+	@Override
+	public <T> T getInterface(final Object thiz, final Class<T> type) {
+		if (!(thiz instanceof LoxInstance)) throw new IllegalArgumentException("Not a Lox instance: " + thiz);
+		return implement(type, thiz);
+	}
+
+	/*
+	 * Implement the interface with the functions of the engine scope, or the
+	 * methods of the instance, of the same names.
+	 */
+	private <T> T implement(final Class<T> type, final Object thiz) {
+		if (type == null || !type.isInterface()) throw new IllegalArgumentException("Not an interface: " + type);
+		for (final Method method : type.getMethods()) {
+			final Object function = thiz != null ? method(thiz, method.getName())
+					: context.getBindings(ScriptContext.ENGINE_SCOPE).get(method.getName());
+			if (!(function instanceof LoxCallable)) return null;
+		}
+
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+			if (method.getDeclaringClass() == Object.class) {
+				switch (method.getName()) {
+				case "equals": return proxy == args[0];
+				case "hashCode": return System.identityHashCode(proxy);
+				default: return "Lox " + type.getName();
+				}
+			}
+			final Object result = thiz != null ? invokeMethod(thiz, method.getName(), args)
+					: invokeFunction(method.getName(), args);
+			return toJava(result, method.getReturnType());
+		}));
+	}
+
+	/*
+	 * Lox numbers are doubles, narrow them to what the interface returns.
+	 */
+	private static Object toJava(final Object value, final Class<?> type) {
+		if (!(value instanceof Double)) return value;
+		final double number = (Double) value;
+		if (type == int.class || type == Integer.class) return (int) number;
+		if (type == long.class || type == Long.class) return (long) number;
+		if (type == float.class || type == Float.class) return (float) number;
+		if (type == short.class || type == Short.class) return (short) number;
+		if (type == byte.class || type == Byte.class) return (byte) number;
+		return value;
+	}
+
+	private static String fileName(final ScriptContext context) {
+		final Object name = context.getAttribute(ScriptEngine.FILENAME);
+		return name != null ? name.toString() : null;
+	}
+
+	private static String read(final Reader reader) throws ScriptException {
+		final StringBuilder source = new StringBuilder();
+		final char[] buffer = new char[8192];
+		try {
+			for (int count; (count = reader.read(buffer)) >= 0;) {
+				source.append(buffer, 0, count);
+			}
+		} catch (IOException e) {
+			throw new ScriptException(e);
+		}
+		return source.toString();
+	}
+
+	private static PrintStream utf8(final OutputStream out) {
+		try {
+			return new PrintStream(out, false, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			// Every Java platform is required to support UTF-8.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String text(final ByteArrayOutputStream bytes) {
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8).trim();
+	}
+
+	/*
+	 * The interpreter prints to a PrintStream while a script context hands out
+	 * Writers: decode the bytes back, keeping the first bytes of a character
+	 * split between two writes until its last bytes come.
+	 */
+	private static class WriterOutputStream extends OutputStream {
+		private final Writer writer;
+		private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		private final ByteBuffer pending = ByteBuffer.allocate(8);
+
+		WriterOutputStream(final Writer writer) {
+			this.writer = writer;
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+			final ByteBuffer in;
+			if (pending.position() == 0) {
+				in = ByteBuffer.wrap(bytes, offset, length);
+			} else {
+				in = ByteBuffer.allocate(pending.position() + length);
+				pending.flip();
+				in.put(pending).put(bytes, offset, length).flip();
+				pending.clear();
+			}
+			final CharBuffer chars = CharBuffer.allocate(in.remaining());
+			decoder.decode(in, chars, false);
+			writer.write(chars.array(), 0, chars.position());
+			pending.put(in);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			writer.flush();
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+
+/**
+ * Makes Lox available through javax.script, registered in
+ * META-INF/services/javax.script.ScriptEngineFactory:
+ *
+ * <pre>
+ * ScriptEngine lox = new ScriptEngineManager().getEngineByName("lox");
+ * </pre>
+ *
+ * Every script engine of a factory compiles through the same
+ * {@link LoxEngine}, so a script is only compiled once whichever engine
+ * evaluates it.
+ */
+public class LoxScriptEngineFactory implements ScriptEngineFactory {
+	private static final List<String> NAMES = Collections.unmodifiableList(Arrays.asList("lox", "Lox", "jlox"));
+	private static final List<String> EXTENSIONS = Collections.singletonList("lox");
+	private static final List<String> MIME_TYPES = Collections.singletonList("application/x-lox");
+
+	private final LoxEngine engine = new LoxEngine();
+
+	@Override
+	public String getEngineName() {
+		return "JLox";
+	}
+
+	@Override
+	public String getEngineVersion() {
+		return Lox.VERSION;
+	}
+
+	@Override
+	public List<String> getExtensions() {
+		return EXTENSIONS;
+	}
+
+	@Override
+	public List<String> getMimeTypes() {
+		return MIME_TYPES;
+	}
+
+	@Override
+	public List<String> getNames() {
+		return NAMES;
+	}
+
+	@Override
+	public String getLanguageName() {
+		return "Lox";
+	}
+
+	@Override
+	public String getLanguageVersion() {
+		return Lox.VERSION;
+	}
+
+	@Override
+	public Object getParameter(final String key) {
+		switch (key) {
+		case ScriptEngine.ENGINE: return getEngineName();
+		case ScriptEngine.ENGINE_VERSION: return getEngineVersion();
+		case ScriptEngine.NAME: return NAMES.get(0);
+		case ScriptEngine.LANGUAGE: return getLanguageName();
+		case ScriptEngine.LANGUAGE_VERSION: return getLanguageVersion();
+		// An engine runs one context, it must not be used by two threads at once.
+		case "THREADING": return null;
+		default: return null;
+		}
+	}
+
+	@Override
+	public String getMethodCallSyntax(final String obj, final String m, final String... args) {
+		return obj + "." + m + "(" + String.join(", ", args) + ")";
+	}
+
+	@Override
+	public String getOutputStatement(final String toDisplay) {
+		return "print \"" + toDisplay + "\";";
+	}
+
+	@Override
+	public String getProgram(final String... statements) {
+		final StringBuilder program = new StringBuilder();
+		for (final String statement : statements) {
+			program.append(statement).append(";\n");
+		}
+		return program.toString();
+	}
+
+	@Override
+	public ScriptEngine getScriptEngine() {
+		return new LoxScriptEngine(this, engine);
+	}
+}
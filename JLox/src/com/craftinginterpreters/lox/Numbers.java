@@ -0,0 +1,42 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * How Lox prints numbers: integers without a fraction, anything else as Java
+ * prints a double.
+ */
+final class Numbers {
+	// Double.toString switches to the scientific notation from 10^7 on.
+	private static final double SCIENTIFIC = 1e7;
+	private static final String[] SMALL = new String[1024];
+
+	static {
+		for (int i = 0; i < SMALL.length; i++) {
+			SMALL[i] = Integer.toString(i);
+		}
+	}
+
+	private Numbers() {
+	}
+
+	/**
+	 * @return whether the number prints as a plain long, -0 excluded.
+	 */
+	static boolean isSmallInteger(final double number) {
+		return number > -SCIENTIFIC && number < SCIENTIFIC && number == (long) number
+				&& (number != 0 || 1 / number > 0);
+	}
+
+	/**
+	 * @return the same text as Double.toString without its ".0" suffix.
+	 */
+	static String format(final double number) {
+		if (isSmallInteger(number)) {
+			final long integer = (long) number;
+			if (integer >= 0 && integer < SMALL.length) return SMALL[(int) integer];
+			return Long.toString(integer);
+		}
+		if (number == 0) return "-0";
+		// Only integers end with ".0", and those below 10^7 were handled above.
+		return Double.toString(number);
+	}
+}
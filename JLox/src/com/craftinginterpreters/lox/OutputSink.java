@@ -0,0 +1,76 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+
+/**
+ * Where the print statements of an interpreter write. The text is gathered in
+ * a buffer which takes no lock, and handed to the stream in one write when it
+ * outgrows the threshold and when a program ends; a threshold of 0 writes every
+ * line at once. The stream itself is only flushed before a runtime error is
+ * reported and by {@link #flush()}: at the prompt, at exit, or at the end of
+ * its input, so that a stream buffered for many runs is not flushed by each.
+ */
+public class OutputSink {
+	public static final int DEFAULT_THRESHOLD = 8192;
+
+	private final PrintStream out;
+	private final int threshold;
+	private final int capacity;
+	private StringBuilder buffer;
+
+	public OutputSink(final PrintStream out) {
+		this(out, DEFAULT_THRESHOLD);
+	}
+
+	public OutputSink(final PrintStream out, final int threshold) {
+		this.out = out;
+		this.threshold = threshold;
+		this.capacity = Math.min(threshold, DEFAULT_THRESHOLD) + 128;
+		this.buffer = new StringBuilder(capacity);
+	}
+
+	public void println(final String text) {
+		buffer.append(text).append('\n');
+		if (buffer.length() > threshold) drain();
+	}
+
+	/**
+	 * Print a number as {@link Interpreter#stringify(Object)} would, without
+	 * making a string of it when it is a small integer.
+	 */
+	public void println(final double number) {
+		if (Numbers.isSmallInteger(number)) {
+			buffer.append((long) number).append('\n');
+			if (buffer.length() > threshold) drain();
+		} else {
+			println(Numbers.format(number));
+		}
+	}
+
+	/**
+	 * Write the buffer to the stream, and flush the stream.
+	 */
+	public void flush() {
+		drain();
+		out.flush();
+	}
+
+	/**
+	 * Write the buffer to the stream, which keeps it as long as it buffers.
+	 */
+	public void drain() {
+		if (buffer.length() > 0) {
+			out.append(buffer);
+			// A huge line once printed does not keep its room for the session.
+			if (buffer.capacity() > 4 * capacity) {
+				buffer = new StringBuilder(capacity);
+			} else {
+				buffer.setLength(0);
+			}
+		}
+	}
+
+	public PrintStream getStream() {
+		return out;
+	}
+}
@@ -7,9 +7,20 @@ import java.util.List;
 public class Parser {
 	private final List<Token> tokens;
 	private int current = 0;
+	private final boolean lazy;
+	private final ErrorReporter reporter;
 	
-	public Parser(final List<Token> tokens) {
+	public Parser(final List<Token> tokens, final ErrorReporter reporter) {
+		this(tokens, false, reporter);
+	}
+	
+	/**
+	 * @param lazy only pre-parse function and method bodies, see {@link LazyBody}.
+	 */
+	public Parser(final List<Token> tokens, final boolean lazy, final ErrorReporter reporter) {
 		this.tokens = tokens;
+		this.lazy = lazy;
+		this.reporter = reporter;
 	}
 	
 	public List<Stmt> parse() {
@@ -20,6 +31,17 @@ public class Parser {
 		return statements;
 	}
 	
+	/**
+	 * Parse the tokens of a {@link LazyBody}, which end with the closing brace.
+	 */
+	public List<Stmt> parseBody() {
+		try {
+			return block();
+		} catch (ParseError error) {
+			return new ArrayList<Stmt>();
+		}
+	}
+	
 	private Expr expression() {
 		return assignment();
 	}
@@ -68,6 +90,7 @@ public class Parser {
 	}
 	
 	private Stmt forStatement() {
+		final Token keyword = previous();
 		consume(TokenType.LEFT_PAREN, "Expect '(' after 'for'.");
 		
 		Stmt initializer;
@@ -93,6 +116,10 @@ public class Parser {
 		
 		Stmt body = statement();
 		
+		if (isCounted(initializer, condition, increment)) {
+			return new Stmt.CountedLoop((Stmt.Var) initializer, (Expr.Binary) condition, (Expr.Assign) increment, body);
+		}
+		
 		if (increment != null) {
 			body = new Stmt.Block(
 					Arrays.asList(
@@ -101,7 +128,7 @@ public class Parser {
 		}
 		
 		if (condition == null) condition = new Expr.Literal(true);
-		body = new Stmt.While(condition, body);
+		body = new Stmt.While(keyword, condition, body);
 		
 		if (initializer != null) {
 			body = new Stmt.Block(Arrays.asList(initializer, body));
@@ -110,6 +137,41 @@ public class Parser {
 		return body;
 	}
 	
+	/*
+	 * Whether the clauses are those of a loop counting up or down by a constant
+	 * step: "var i = start; i < limit; i = i + step", with any comparison and
+	 * "-" as well. The Resolver checks the body.
+	 */
+	private static boolean isCounted(final Stmt initializer, final Expr condition, final Expr increment) {
+		if (!(initializer instanceof Stmt.Var) || ((Stmt.Var) initializer).initializer == null) return false;
+		final String name = ((Stmt.Var) initializer).name.lexeme;
+
+		if (!(condition instanceof Expr.Binary)) return false;
+		final Expr.Binary comparison = (Expr.Binary) condition;
+		switch (comparison.operator.type) {
+		case GREATER:
+		case GREATER_EQUAL:
+		case LESS:
+		case LESS_EQUAL:
+			break;
+		default:
+			return false;
+		}
+		if (!isVariable(comparison.left, name)) return false;
+
+		if (!(increment instanceof Expr.Assign) || !((Expr.Assign) increment).name.lexeme.equals(name)) return false;
+		final Expr value = ((Expr.Assign) increment).value;
+		if (!(value instanceof Expr.Binary)) return false;
+		final Expr.Binary step = (Expr.Binary) value;
+		return (step.operator.type == TokenType.PLUS || step.operator.type == TokenType.MINUS)
+				&& isVariable(step.left, name) && step.right instanceof Expr.Literal
+				&& ((Expr.Literal) step.right).value instanceof Double;
+	}
+
+	private static boolean isVariable(final Expr expr, final String name) {
+		return expr instanceof Expr.Variable && ((Expr.Variable) expr).name.lexeme.equals(name);
+	}
+	
 	private Stmt ifStatement() {
 		consume(TokenType.LEFT_PAREN, "Expect '(' after 'if'.");
 		final Expr condition = expression();
@@ -154,12 +216,13 @@ public class Parser {
 	}
 	
 	private Stmt whileStatement() {
+		final Token keyword = previous();
 		consume(TokenType.LEFT_PAREN, "Expect '(' after 'while'.");
 		final Expr condition = expression();
 		consume(TokenType.RIGHT_PAREN, "Expect ')' after condition.");
 		final Stmt body = statement();
 		
-		return new Stmt.While(condition, body);
+		return new Stmt.While(keyword, condition, body);
 	}
 	
 	private Stmt expressionStatement() {
@@ -170,6 +233,16 @@ public class Parser {
 	
 	private Stmt.Function function(final String kind) {
 		final Token name = consume(TokenType.IDENTIFIER, "Expect " + kind + " name.");
+		final List<Token> parameters = parameters(kind);
+		if (lazy) {
+			return new Stmt.Function(name, parameters, new LazyBody(skipBody()));
+		}
+		final List<Stmt> body = block();
+		return new Stmt.Function(name, parameters, body);
+	}
+	
+	// The parameters of a function, up to the brace opening its body.
+	private List<Token> parameters(final String kind) {
 		consume(TokenType.LEFT_PAREN, "Expect '(' after " + kind + " name.");
 		final List<Token> parameters = new ArrayList<>();
 		if (!check(TokenType.RIGHT_PAREN)) {
@@ -184,8 +257,20 @@ public class Parser {
 		
 		consume(TokenType.RIGHT_PAREN, "Expect ')' after parameters.");
 		consume(TokenType.LEFT_BRACE, "Expect '{' before " + kind + " body.");
-		final List<Stmt> body = block();
-		return new Stmt.Function(name, parameters, body);
+		return parameters;
+	}
+	
+	/*
+	 * Pre-parse a body: parse it as any block, so that its syntax errors are
+	 * reported now, drop the nodes, and return the tokens up to the closing
+	 * brace followed by an EOF.
+	 */
+	private List<Token> skipBody() {
+		final int start = current;
+		block();
+		final List<Token> body = new ArrayList<>(tokens.subList(start, current));
+		body.add(new Token(TokenType.EOF, "", null, previous().line));
+		return body;
 	}
 	
 	private List<Stmt> block() {
@@ -326,6 +411,22 @@ public class Parser {
 		return expr;
 	}
 	
+	private Expr interpolation() {
+		final List<String> strings = new ArrayList<>();
+		final List<Expr> expressions = new ArrayList<>();
+		strings.add((String) previous().literal);
+		for (;;) {
+			expressions.add(expression());
+			if (match(TokenType.STRING_PART)) {
+				strings.add((String) previous().literal);
+				continue;
+			}
+			final Token end = consume(TokenType.STRING, "Expect '}' after interpolated expression.");
+			strings.add((String) end.literal);
+			return new Expr.Interpolation(strings, expressions);
+		}
+	}
+
 	private Expr primary() {
 		if (match(TokenType.FALSE))
 			return new Expr.Literal(false);
@@ -338,6 +439,10 @@ public class Parser {
 			return new Expr.Literal(previous().literal);
 		}
 
+		if (match(TokenType.STRING_PART)) {
+			return interpolation();
+		}
+
 		if (match(TokenType.SUPER)) {
 			final Token keyword = previous();
 			consume(TokenType.DOT, "Expect '.' after 'super'.");
@@ -403,7 +508,7 @@ public class Parser {
 	}
 	
 	private ParseError error(final Token token, final String message) {
-		Lox.error(token, message);
+		reporter.error(token, message);
 		return new ParseError();
 	}
 	
@@ -0,0 +1,21 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A scanned, parsed and resolved script. The resolution is kept in the syntax
+ * trees and nothing changes them once compiled, apart from lazy bodies which
+ * are published safely, so a program can run in many contexts at once.
+ */
+public class Program {
+	private final List<Stmt> statements;
+
+	Program(final List<Stmt> statements) {
+		this.statements = Collections.unmodifiableList(statements);
+	}
+
+	public List<Stmt> getStatements() {
+		return statements;
+	}
+}
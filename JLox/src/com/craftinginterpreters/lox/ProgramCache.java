@@ -0,0 +1,173 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The compiled programs of an engine by source, bounded both in number and in
+ * total source length, evicting the least recently used first.
+ *
+ * The cache is split in segments by the hash of the source, each with its own
+ * lock, so that threads compiling different scripts rarely wait for each other.
+ * The bounds hold for the whole cache: the program evicted is the least
+ * recently used of the eldest of each segment. The lookup compares the whole
+ * source, a colliding hash is only a miss.
+ */
+public class ProgramCache {
+	private static final int SEGMENTS = 16;
+
+	private final Segment[] segments = new Segment[SEGMENTS];
+	private final int maxPrograms;
+	private final long maxSize;
+	private final AtomicInteger programs = new AtomicInteger();
+	private final AtomicLong size = new AtomicLong();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * @param maxPrograms the number of programs kept.
+	 * @param maxSize     the total length of the sources of the programs kept, in
+	 *                    chars, which the size of a program grows with.
+	 */
+	public ProgramCache(final int maxPrograms, final long maxSize) {
+		this.maxPrograms = maxPrograms;
+		this.maxSize = maxSize;
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment();
+		}
+	}
+
+	private Segment segment(final String source) {
+		final int hash = source.hashCode();
+		// Spread the high bits, the low ones of string hashes are often alike.
+		return segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+	}
+
+	/**
+	 * @return the program compiled from the source, or null.
+	 */
+	public Program get(final String source) {
+		final Segment segment = segment(source);
+		final Entry entry;
+		synchronized (segment) {
+			entry = segment.programs.get(source);
+			if (entry != null) entry.used = System.nanoTime();
+		}
+		(entry != null ? hits : misses).increment();
+		return entry != null ? entry.program : null;
+	}
+
+	/**
+	 * Keep the program unless another thread compiled the same source first.
+	 *
+	 * @return the program kept for the source.
+	 */
+	public Program put(final String source, final Program program) {
+		final Segment segment = segment(source);
+		synchronized (segment) {
+			final Entry previous = segment.programs.get(source);
+			if (previous != null) return previous.program;
+
+			segment.programs.put(source, new Entry(program));
+			programs.incrementAndGet();
+			size.addAndGet(source.length());
+		}
+		evict();
+		return program;
+	}
+
+	/*
+	 * Evict the least recently used programs until the cache is within its
+	 * bounds, locking one segment at a time. A source larger than the cache is
+	 * kept until the next one comes.
+	 */
+	private void evict() {
+		while (overflows()) {
+			Segment oldest = null;
+			long used = Long.MAX_VALUE;
+			for (final Segment segment : segments) {
+				synchronized (segment) {
+					if (segment.programs.isEmpty()) continue;
+					// Iterating the values is not an access, the order stays.
+					final Entry eldest = segment.programs.values().iterator().next();
+					if (oldest == null || eldest.used - used < 0) {
+						oldest = segment;
+						used = eldest.used;
+					}
+				}
+			}
+			if (oldest == null) return;
+
+			synchronized (oldest) {
+				// Another thread may have evicted, or used the program, since.
+				if (!overflows() || oldest.programs.isEmpty()) continue;
+				final Iterator<Map.Entry<String, Entry>> eldest = oldest.programs.entrySet().iterator();
+				final Map.Entry<String, Entry> entry = eldest.next();
+				if (entry.getValue().used != used) continue;
+				eldest.remove();
+				programs.decrementAndGet();
+				size.addAndGet(-entry.getKey().length());
+				evictions.increment();
+			}
+		}
+	}
+
+	private boolean overflows() {
+		final int count = programs.get();
+		return count > maxPrograms || (count > 1 && size.get() > maxSize);
+	}
+
+	public void clear() {
+		for (final Segment segment : segments) {
+			synchronized (segment) {
+				for (final String source : segment.programs.keySet()) {
+					size.addAndGet(-source.length());
+				}
+				programs.addAndGet(-segment.programs.size());
+				segment.programs.clear();
+			}
+		}
+	}
+
+	public int size() {
+		return programs.get();
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "programs: " + size() + ", hits: " + getHits() + ", misses: " + getMisses() + ", evictions: "
+				+ getEvictions();
+	}
+
+	private static class Segment {
+		// In access order, the eldest entry is the least recently used.
+		final LinkedHashMap<String, Entry> programs = new LinkedHashMap<>(16, 0.75f, true);
+	}
+
+	private static class Entry {
+		final Program program;
+		// When it was last put or got, in System.nanoTime.
+		long used = System.nanoTime();
+
+		Entry(final Program program) {
+			this.program = program;
+		}
+	}
+}
@@ -1,9 +1,9 @@
 package com.craftinginterpreters.lox;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Stack;
 
 import com.craftinginterpreters.lox.Expr.Assign;
@@ -30,13 +30,23 @@ import com.craftinginterpreters.lox.Stmt.While;
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	
-	private Interpreter interpreter;
+	private final ErrorReporter reporter;
 	private final Stack<Map<String, Boolean>> scopes = new Stack<>();
 	private FunctionType currentFunction = FunctionType.NONE;
 	private final Map<String, Token> unusedVariables = new HashMap<>();
+	// The counted loops around the code being resolved, innermost last.
+	private final List<Loop> loops = new ArrayList<>();
+	// The first scope of the function being resolved, the scopes below are those of its closure.
+	private int functionScope = 0;
+	// How many functions and methods were resolved so far, each a closure over the scopes around it.
+	private int closures = 0;
 	
-	public Resolver(final Interpreter interpreter) {
-		this.interpreter = interpreter;
+	/**
+	 * The resolver only writes into the syntax trees, so that resolved programs
+	 * can be shared by interpreters.
+	 */
+	public Resolver(final ErrorReporter reporter) {
+		this.reporter = reporter;
 	}
 	
 	private enum FunctionType {
@@ -55,30 +65,80 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	private ClassType currentClass = ClassType.NONE;
 	
 	public void resolve(final List<Stmt> statements) {
-		statements.forEach(statement -> {
+		for (final Stmt statement : statements) {
 			resolve(statement);
-		});
+		}
 	}
 	
 	private void resolveFunction(final Stmt.Function function, final FunctionType functionType) {
+		closures++;
+		if (function.lazyBody != null) {
+			// Its body is resolved too late to tell whether it assigns or captures a loop variable,
+			// or uses a variable around it.
+			for (final Loop loop : loops) {
+				loop.stmt.counted = false;
+			}
+			for (final Map<String, Boolean> scope : scopes) {
+				unusedVariables.keySet().removeAll(scope.keySet());
+			}
+			function.lazyBody.defer(new Deferred(scopes, functionType, currentClass));
+			return;
+		}
+		resolveFunction(function.params, function.body, functionType);
+	}
+	
+	private void resolveFunction(final List<Token> params, final List<Stmt> body, final FunctionType functionType) {
 		final FunctionType enclosingFunction = currentFunction;
+		final int enclosingScope = functionScope;
 		currentFunction = functionType;
+		functionScope = scopes.size();
 		beginScope();
-		function.params.forEach(param -> {
+		for (final Token param : params) {
 			declare(param);
 			define(param);
-		});
-		resolve(function.body);
+		}
+		resolve(body);
 		endScope();
 		currentFunction = enclosingFunction;
+		functionScope = enclosingScope;
+	}
+	
+	/**
+	 * The state of the resolver at the declaration of a lazily parsed function,
+	 * used to resolve its body once it has been parsed.
+	 */
+	static class Deferred {
+		private final List<Map<String, Boolean>> scopes = new ArrayList<>();
+		private final FunctionType functionType;
+		private final ClassType classType;
+		
+		private Deferred(final List<Map<String, Boolean>> scopes, final FunctionType functionType, final ClassType classType) {
+			// Names declared after the function must stay invisible to it.
+			for (final Map<String, Boolean> scope : scopes) {
+				this.scopes.add(new HashMap<>(scope));
+			}
+			this.functionType = functionType;
+			this.classType = classType;
+		}
+		
+		void resolve(final ErrorReporter reporter, final List<Token> params, final List<Stmt> body) {
+			final Resolver resolver = new Resolver(reporter);
+			resolver.scopes.addAll(scopes);
+			resolver.currentClass = classType;
+			resolver.resolveFunction(params, body, functionType);
+		}
 	}
 
 	@Override
 	public Void visitBlockStmt(Block stmt) {
 		beginScope();
 		resolve(stmt.statements);
-		for (final Entry<String, Token> entry : unusedVariables.entrySet()) {
-			Lox.error(entry.getValue(), "The variable is never used.");
+		// Only report the variables of this block, once.
+		for (final String name : scopes.peek().keySet()) {
+			final Token unused = unusedVariables.remove(name);
+			if (unused != null) {
+				reporter.error(unused, "The variable is never used.");
+			}
 		}
 		endScope();
 		return null;
@@ -92,7 +152,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 		define(stmt.name);
 		
 		if (stmt.superclass != null && stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
-			Lox.error(stmt.superclass.name, "A class can't inherit from itself.");
+			reporter.error(stmt.superclass.name, "A class can't inherit from itself.");
 		}
 		
 		if (stmt.superclass != null) {
@@ -146,7 +206,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 		
 		final Map<String, Boolean> scope = scopes.peek();
 		if (scope.containsKey(name.lexeme)) {
-			Lox.error(name, "Already a variable with this name in this scope.");
+			reporter.error(name, "Already a variable with this name in this scope.");
 		}
 		scope.put(name.lexeme, false);
 	}
@@ -156,13 +216,83 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 		scopes.peek().put(name.lexeme, true);
 	}
 	
-	private void resolveLocal(final Expr expr, final Token name) {
+	/**
+	 * @return how many scopes up the name is declared, or Expr.GLOBAL.
+	 */
+	private int resolveLocal(final Token name) {
 		for (int i = scopes.size() - 1; i >= 0; i--) {
 			if (scopes.get(i).containsKey(name.lexeme)) {
-				interpreter.resolve(expr, scopes.size() - 1 - i);
-				return;
+				return scopes.size() - 1 - i;
+			}
+		}
+		return Expr.GLOBAL;
+	}
+
+	/*
+	 * A counted loop being resolved: the scope of its variable, and the reads
+	 * of the variable which take the counter if the loop stays counted.
+	 */
+	private static class Loop {
+		final Stmt.CountedLoop stmt;
+		final int scope;
+		final List<Variable> reads = new ArrayList<>();
+
+		Loop(final Stmt.CountedLoop stmt, final int scope) {
+			this.stmt = stmt;
+			this.scope = scope;
+		}
+	}
+
+	// The index in loops of the loop whose variable is in the scope, or -1.
+	private int loopOf(final int scope) {
+		for (int i = loops.size() - 1; i >= 0; i--) {
+			if (loops.get(i).scope == scope) return i;
+		}
+		return -1;
+	}
+
+	/*
+	 * The scopes are those of the loop the for statement would be otherwise:
+	 * the one of the variable, and the one of the body if it declares anything.
+	 * Every counted loop has a counter at run time, counted or not, so that the
+	 * reads know how many counters in theirs is.
+	 */
+	@Override
+	public Void visitCountedLoopStmt(final Stmt.CountedLoop stmt) {
+		beginScope();
+		resolve(stmt.initializer);
+
+		// The limit is evaluated at every iteration too, it may not assign the variable either.
+		stmt.counted = true;
+		final Loop loop = new Loop(stmt, scopes.size() - 1);
+		loops.add(loop);
+		resolve(stmt.condition);
+		final int enclosingClosures = closures;
+		stmt.flat = stmt.body instanceof Block && !declares(((Block) stmt.body).statements);
+		if (stmt.flat) {
+			resolve(((Block) stmt.body).statements);
+		} else {
+			resolve(stmt.body);
+		}
+		stmt.shared = !stmt.flat && stmt.body instanceof Block && closures == enclosingClosures;
+		loops.remove(loops.size() - 1);
+		if (!stmt.counted) {
+			for (final Variable read : loop.reads) {
+				read.counter = Expr.NO_COUNTER;
 			}
 		}
+
+		// Read from the environment: the loop only evaluates it when it is not counted.
+		resolve(stmt.increment);
+		endScope();
+		return null;
+	}
+
+	private static boolean declares(final List<Stmt> statements) {
+		for (final Stmt statement : statements) {
+			if (statement instanceof Var || statement instanceof Function || statement instanceof Class) return true;
+		}
+		return false;
 	}
 
 	@Override
@@ -199,11 +329,15 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	@Override
 	public Void visitReturnStmt(Return stmt) {
 		if (currentFunction == FunctionType.NONE) {
-			Lox.error(stmt.keyword, "Can't return from top-level code.");
+			reporter.error(stmt.keyword, "Can't return from top-level code.");
 		}
 		if (stmt.value != null) {
 			if (currentFunction == FunctionType.INITIALIZER) {
-				Lox.error(stmt.keyword, "Can't return a value from an initializer.");
+				reporter.error(stmt.keyword, "Can't return a value from an initializer.");
+			}
+			if (stmt.value instanceof Call) {
+				// Nothing is left to do in the function once the call returns, see LoxFunction.call.
+				((Call) stmt.value).tail = true;
 			}
 			resolve(stmt.value);
 		}
@@ -217,7 +351,10 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 			resolve(stmt.initializer);
 		}
 		define(stmt.name);
-		unusedVariables.put(stmt.name.lexeme, stmt.name);
+		// Globals may be used by code which is not resolved yet.
+		if (!scopes.isEmpty()) {
+			unusedVariables.put(stmt.name.lexeme, stmt.name);
+		}
 		return null;
 	}
 
@@ -231,7 +368,11 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	@Override
 	public Void visitAssignExpr(Assign expr) {
 		resolve(expr.value);
-		resolveLocal(expr, expr.name);
+		expr.depth = resolveLocal(expr.name);
+		if (expr.depth != Expr.GLOBAL && !loops.isEmpty()) {
+			final int loop = loopOf(scopes.size() - 1 - expr.depth);
+			if (loop >= 0) loops.get(loop).stmt.counted = false;
+		}
 		return null;
 	}
 
@@ -246,9 +387,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	public Void visitCallExpr(Call expr) {
 		resolve(expr.callee);
 		
-		expr.arguments.forEach(argument -> {
+		for (final Expr argument : expr.arguments) {
 			resolve(argument);
-		});
+		}
 		return null;
 	}
 	
@@ -264,6 +405,14 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 		return null;
 	}
 
+	@Override
+	public Void visitInterpolationExpr(final Expr.Interpolation expr) {
+		for (final Expr expression : expr.expressions) {
+			resolve(expression);
+		}
+		return null;
+	}
+
 	@Override
 	public Void visitLiteralExpr(Literal expr) {
 		return null;
@@ -286,21 +435,21 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	@Override
 	public Void visitSuperExpr(Super expr) {
 		if (currentClass == ClassType.NONE) {
-			Lox.error(expr.keyword, "Can't use 'super' outside of a class.");
+			reporter.error(expr.keyword, "Can't use 'super' outside of a class.");
 		} else if (currentClass != ClassType.SUBCLASS) {
-			Lox.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
+			reporter.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
 		}
-		resolveLocal(expr, expr.keyword);
+		expr.depth = resolveLocal(expr.keyword);
 		return null;
 	}
 	
 	@Override
 	public Void visitThisExpr(This expr) {
 		if (currentClass == ClassType.NONE) {
-			Lox.error(expr.keyword, "Can't use 'this' outside of a class.");
+			reporter.error(expr.keyword, "Can't use 'this' outside of a class.");
 			return null;
 		}
-		resolveLocal(expr, expr.keyword);
+		expr.depth = resolveLocal(expr.keyword);
 		return null;
 	}
 
@@ -314,17 +463,24 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	@Override
 	public Void visitVariableExpr(Variable expr) {
 		if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-			Lox.error(expr.name, "Can't read local variable in its own initializer.");
+			reporter.error(expr.name, "Can't read local variable in its own initializer.");
 		}
 		
-		resolveLocal(expr, expr.name);
+		expr.depth = resolveLocal(expr.name);
+		if (expr.depth != Expr.GLOBAL && !loops.isEmpty()) {
+			final int scope = scopes.size() - 1 - expr.depth;
+			final int loop = loopOf(scope);
+			if (loop >= 0 && scope < functionScope) {
+				// A closure reads the variable, it must stay in the environment.
+				loops.get(loop).stmt.counted = false;
+			} else if (loop >= 0) {
+				expr.counter = loops.size() - 1 - loop;
+				loops.get(loop).reads.add(expr);
+			}
+		}
 		if (unusedVariables.get(expr.name.lexeme) != null) {
 			unusedVariables.remove(expr.name.lexeme);
 		}
 		return null;
 	}
-
-	public Interpreter getInterpreter() {
-		return interpreter;
-	}
 }
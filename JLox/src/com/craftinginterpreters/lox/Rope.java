@@ -0,0 +1,125 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A Lox string made by concatenation, kept as its two parts so that building a
+ * string piece by piece does not copy it again at every step. The characters
+ * are copied once, the first time the string is printed, compared or hashed,
+ * and the parts are then dropped.
+ *
+ * Short results are plain Java strings, which is what every Lox string is
+ * outside of concatenation; anything handing a string to Java flattens it.
+ */
+final class Rope implements CharSequence {
+	// Below this length copying costs less than a node.
+	private static final int SHORT = 64;
+
+	private final int length;
+	// Strings or ropes, both null once flattened.
+	private Object left;
+	private Object right;
+	private volatile String flat;
+
+	private Rope(final Object left, final Object right, final int length) {
+		this.left = left;
+		this.right = right;
+		this.length = length;
+	}
+
+	static boolean isString(final Object value) {
+		return value instanceof String || value instanceof Rope;
+	}
+
+	/**
+	 * @param left  a String or a Rope.
+	 * @param right a String or a Rope.
+	 * @return the concatenation, a Rope unless it is short.
+	 */
+	static Object concat(final Object left, final Object right) {
+		final int leftLength = ((CharSequence) left).length();
+		final int rightLength = ((CharSequence) right).length();
+		if (leftLength == 0) return right;
+		if (rightLength == 0) return left;
+		if (leftLength + rightLength < 0) throw new OutOfMemoryError("String too long.");
+		if (leftLength + rightLength <= SHORT) return left.toString() + right.toString();
+		return new Rope(left, right, leftLength + rightLength);
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(final int index) {
+		return toString().charAt(index);
+	}
+
+	@Override
+	public CharSequence subSequence(final int start, final int end) {
+		return toString().subSequence(start, end);
+	}
+
+	/*
+	 * The parts of an unflattened rope, read under its lock since another
+	 * context may be flattening it.
+	 */
+	private synchronized Object[] parts() {
+		return flat == null ? new Object[] { left, right } : null;
+	}
+
+	/**
+	 * @return the characters of the string, copied the first time only. The
+	 *         parts are walked with a stack of their own: a string built in a
+	 *         loop is a rope as deep as the loop is long.
+	 */
+	@Override
+	public String toString() {
+		final String known = flat;
+		if (known != null) return known;
+
+		synchronized (this) {
+			if (flat != null) return flat;
+
+			final char[] chars = new char[length];
+			int position = 0;
+			final Deque<Object> pending = new ArrayDeque<>();
+			pending.push(right);
+			pending.push(left);
+			while (!pending.isEmpty()) {
+				final Object part = pending.pop();
+				String text = part instanceof String ? (String) part : ((Rope) part).flat;
+				if (text == null) {
+					final Object[] parts = ((Rope) part).parts();
+					if (parts != null) {
+						pending.push(parts[1]);
+						pending.push(parts[0]);
+						continue;
+					}
+					text = ((Rope) part).flat;
+				}
+				text.getChars(0, text.length(), chars, position);
+				position += text.length();
+			}
+
+			flat = new String(chars);
+			left = null;
+			right = null;
+			return flat;
+		}
+	}
+
+	@Override
+	public boolean equals(final Object other) {
+		if (this == other) return true;
+		if (!isString(other) || ((CharSequence) other).length() != length) return false;
+		return toString().equals(other.toString());
+	}
+
+	@Override
+	public int hashCode() {
+		return toString().hashCode();
+	}
+}
@@ -1,14 +1,22 @@
 package com.craftinginterpreters.lox;
 
+import java.util.List;
+
 public class RuntimeError extends RuntimeException {
 	/**
 	 * 
 	 */
 	private static final long serialVersionUID = 1L;
 	final Token token;
+	// The Lox calls the error went through, innermost first, set by the Interpreter.
+	List<String> backtrace = null;
 	
+	/**
+	 * Lox errors report the Lox calls, not the frames of the interpreter, so
+	 * the Java stack is not captured.
+	 */
 	public RuntimeError(final Token token, final String message) {
-		super(message);
+		super(message, null, false, false);
 		this.token = token;
 	}
 }
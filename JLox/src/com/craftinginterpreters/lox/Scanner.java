@@ -3,10 +3,10 @@
  */
 package com.craftinginterpreters.lox;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Deque;
 import java.util.List;
-import java.util.Map;
 
 /**
  * @author Admin
@@ -14,36 +14,45 @@ import java.util.Map;
  */
 public class Scanner {
 	private final String source;
+	private final ErrorReporter reporter;
 	private final List<Token> tokens = new ArrayList<>();
-	private static final Map<String, TokenType> keyworks;
+	// The braces opened in every interpolation being scanned, innermost first.
+	private final Deque<Integer> interpolations = new ArrayDeque<>();
 	
-	static {
-		keyworks = new HashMap<String, TokenType>();
-		keyworks.put("and", TokenType.AND);
-		keyworks.put("class", TokenType.CLASS);
-		keyworks.put("else", TokenType.ELSE);
-		keyworks.put("false", TokenType.FALSE);
-		keyworks.put("for", TokenType.FOR);
-		keyworks.put("if", TokenType.IF);
-		keyworks.put("nil", TokenType.NIL);
-		keyworks.put("or", TokenType.OR);
-		keyworks.put("print", TokenType.PRINT);
-		keyworks.put("return", TokenType.RETURN);
-		keyworks.put("super", TokenType.SUPER);
-		keyworks.put("this", TokenType.THIS);
-		keyworks.put("true", TokenType.TRUE);
-		keyworks.put("var", TokenType.VAR);
-		keyworks.put("while", TokenType.WHILE);
-		keyworks.put("break", TokenType.BREAK);
-		keyworks.put("fun", TokenType.FUN);
+	/*
+	 * A switch instead of a map of the keywords, so that loading the scanner
+	 * does not build and fill a map.
+	 */
+	private static TokenType keyword(final String text) {
+		switch (text) {
+		case "and": return TokenType.AND;
+		case "class": return TokenType.CLASS;
+		case "else": return TokenType.ELSE;
+		case "false": return TokenType.FALSE;
+		case "for": return TokenType.FOR;
+		case "if": return TokenType.IF;
+		case "nil": return TokenType.NIL;
+		case "or": return TokenType.OR;
+		case "print": return TokenType.PRINT;
+		case "return": return TokenType.RETURN;
+		case "super": return TokenType.SUPER;
+		case "this": return TokenType.THIS;
+		case "true": return TokenType.TRUE;
+		case "var": return TokenType.VAR;
+		case "while": return TokenType.WHILE;
+		case "break": return TokenType.BREAK;
+		case "fun": return TokenType.FUN;
+		default: return null;
+		}
 	}
 
 	private int start = 0;
 	private int current = 0;
 	private int line = 1;
 
-	public Scanner(final String source) {
+	public Scanner(final String source, final ErrorReporter reporter) {
 		this.source = source;
+		this.reporter = reporter;
 	}
 
 	public List<Token> scanTokens() {
@@ -52,6 +61,9 @@ public class Scanner {
 			start = current;
 			scanToken();
 		}
+		if (!interpolations.isEmpty()) {
+			reporter.error(line, "Unterminated string interpolation.");
+		}
 		tokens.add(new Token(TokenType.EOF, "", null, line));
 		return tokens;
 	}
@@ -66,8 +78,20 @@ public class Scanner {
 		switch (c) {
 			case '(': addToken(TokenType.LEFT_PAREN); break;
 			case ')': addToken(TokenType.RIGHT_PAREN); break;
-			case '{': addToken(TokenType.LEFT_BRACE); break;
-			case '}': addToken(TokenType.RIGHT_BRACE); break;
+			case '{':
+				if (!interpolations.isEmpty()) interpolations.push(interpolations.pop() + 1);
+				addToken(TokenType.LEFT_BRACE);
+				break;
+			case '}':
+				if (!interpolations.isEmpty() && interpolations.peek() == 0) {
+					// The end of an interpolated expression, the string goes on.
+					interpolations.pop();
+					string();
+					break;
+				}
+				if (!interpolations.isEmpty()) interpolations.push(interpolations.pop() - 1);
+				addToken(TokenType.RIGHT_BRACE);
+				break;
 			case ',': addToken(TokenType.COMMA); break;
 			case '.': addToken(TokenType.DOT); break;
 			case '-': addToken(TokenType.MINUS); break;
@@ -111,18 +135,13 @@ public class Scanner {
 				line++;
 				break;
 			case '"': string(); break;
-			case 'o':
-				if (match('r')) {
-					addToken(TokenType.OR);
-				}
-				break;
 			default:
 				if (isDigit(c)) {
 					number();
 				} else if (isAlpha(c)) {
 					identifier();
 				} else {
-					Lox.error(line, "Unexpected character.");
+					reporter.error(line, "Unexpected character.");
 				}
 				break;
 		}
@@ -154,14 +173,36 @@ public class Scanner {
 		return source.charAt(current);
 	}
 	
+	/*
+	 * Scan from the opening quote, or from the brace closing an interpolation,
+	 * up to the closing quote or to the next interpolation. "\${" is an escape
+	 * for a literal "${", any other backslash is kept as it is.
+	 */
 	private void string() {
+		boolean escaped = false;
 		while (peek() != '"' && !isAtEnd()) {
+			if (peek() == '\\' && peekNext() == '$' && current + 2 < source.length()
+					&& source.charAt(current + 2) == '{') {
+				advance();
+				advance();
+				advance();
+				escaped = true;
+				continue;
+			}
+			if (peek() == '$' && peekNext() == '{') {
+				final String value = unescape(source.substring(start + 1, current), escaped);
+				advance();
+				advance();
+				addToken(TokenType.STRING_PART, value);
+				interpolations.push(0);
+				return;
+			}
 			if (peek() == '\n') line++;
 			advance();
 		}
 		
 		if (isAtEnd()) {
-			Lox.error(line, "Unterminated string.");
+			reporter.error(line, "Unterminated string.");
 			return;
 		}
 		
@@ -169,9 +210,13 @@ public class Scanner {
 		advance();
 		
 		// Trim the surrounding quotes.
-		final String value = source.substring(start + 1, current - 1);
+		final String value = unescape(source.substring(start + 1, current - 1), escaped);
 		addToken(TokenType.STRING, value);
 	}
+
+	private static String unescape(final String text, final boolean escaped) {
+		return escaped ? text.replace("\\${", "${") : text;
+	}
 	
 	private boolean isDigit(final char c) {
 		return c >= '0' && c <= '9';
@@ -199,11 +244,11 @@ public class Scanner {
 	private void identifier() {
 		while (isAlphaNumeric(peek())) advance();
 		
-		final String text = source.substring(start, current);
-		TokenType type = keyworks.get(text);
+		final String text = Symbols.intern(source.substring(start, current));
+		TokenType type = keyword(text);
 		if (type == null) type = TokenType.IDENTIFIER;
 		
-		addToken(type);
+		tokens.add(new Token(type, text, null, line));
 	}
 	
 	private boolean isAlpha(final char c) {
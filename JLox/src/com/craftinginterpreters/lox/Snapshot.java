@@ -0,0 +1,298 @@
+package com.craftinginterpreters.lox;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves everything reachable from the globals of an interpreter (environments,
+ * functions with their closures, classes and instances) together with the
+ * declarations of the functions, and restores it into a new interpreter.
+ *
+ * The objects are written in an order where everything needed to construct an
+ * object comes before it (enclosing environments, closures, superclasses and
+ * classes of instances). The contents of environments, classes and instances,
+ * which may form cycles, are written after all the objects.
+ */
+public class Snapshot {
+	private static final int MAGIC = 0x4c4f5853; // "LOXS"
+	private static final int FORMAT = 1;
+
+	// Kinds of objects, the globals are always the first one.
+	private static final int GLOBALS = 0;
+	private static final int ENVIRONMENT = 1;
+	private static final int FUNCTION = 2;
+	private static final int CLASS = 3;
+	private static final int INSTANCE = 4;
+	private static final int NATIVE = 5;
+
+	// Tags of values.
+	private static final int VALUE_NIL = 0;
+	private static final int VALUE_FALSE = 1;
+	private static final int VALUE_TRUE = 2;
+	private static final int VALUE_NUMBER = 3;
+	private static final int VALUE_STRING = 4;
+	private static final int VALUE_OBJECT = 5;
+
+	private final Interpreter interpreter;
+	private final Map<Object, Integer> ids = new IdentityHashMap<>();
+	private final List<Object> objects = new ArrayList<>();
+	private final Map<Stmt.Function, Integer> declarations = new IdentityHashMap<>();
+	private final List<Stmt> declarationList = new ArrayList<>();
+	private final Deque<Object> pending = new ArrayDeque<>();
+
+	private Snapshot(final Interpreter interpreter) {
+		this.interpreter = interpreter;
+	}
+
+	public static void write(final Interpreter interpreter, final Path path) throws IOException {
+		final Snapshot snapshot = new Snapshot(interpreter);
+		snapshot.collect();
+		try (final OutputStream out = Files.newOutputStream(path)) {
+			snapshot.writeTo(out);
+		}
+	}
+
+	/**
+	 * Restore a snapshot into the globals of a new interpreter.
+	 */
+	public static void read(final Interpreter interpreter, final Path path) throws IOException {
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT) {
+				throw new IOException("Not a Lox snapshot.");
+			}
+			new Snapshot(interpreter).readFrom(buffer);
+		} catch (RuntimeException e) {
+			throw new IOException("Corrupted Lox snapshot.", e);
+		}
+	}
+
+	private void collect() {
+		visit(interpreter.globals);
+		while (!pending.isEmpty()) {
+			final Object object = pending.pop();
+			if (object instanceof Environment) {
+				for (final Object value : ((Environment) object).getValues().values()) {
+					visitValue(value);
+				}
+			} else if (object instanceof LoxClass) {
+				for (final LoxFunction method : ((LoxClass) object).getMethods().values()) {
+					visit(method);
+				}
+			} else if (object instanceof LoxInstance) {
+				for (final Object value : ((LoxInstance) object).getFields().values()) {
+					visitValue(value);
+				}
+			}
+		}
+	}
+
+	private void visitValue(final Object value) {
+		if (value == null || value instanceof Boolean || value instanceof Double || Rope.isString(value)) return;
+		visit(value);
+	}
+
+	/*
+	 * Give an id to the object after the objects it is constructed from, and
+	 * leave its contents for later.
+	 */
+	private void visit(final Object object) {
+		if (ids.containsKey(object)) return;
+
+		if (object instanceof Environment) {
+			final Environment environment = (Environment) object;
+			if (environment.enclosing != null) visit(environment.enclosing);
+		} else if (object instanceof LoxFunction) {
+			final LoxFunction function = (LoxFunction) object;
+			visit(function.getClosure());
+			final Stmt.Function declaration = function.getDeclaration();
+			if (!declarations.containsKey(declaration)) {
+				declarations.put(declaration, declarationList.size());
+				declarationList.add(declaration);
+			}
+		} else if (object instanceof LoxClass) {
+			final LoxClass klass = (LoxClass) object;
+			if (klass.getSuperclass() != null) visit(klass.getSuperclass());
+		} else if (object instanceof LoxInstance) {
+			visit(((LoxInstance) object).getKlass());
+		} else if (interpreter.getNativeName(object) == null) {
+			throw new IllegalArgumentException("Cannot write " + object + " to a snapshot.");
+		}
+
+		ids.put(object, objects.size());
+		objects.add(object);
+		pending.push(object);
+	}
+
+	private void writeTo(final OutputStream stream) throws IOException {
+		final DataOutputStream out = new DataOutputStream(stream);
+		out.writeInt(MAGIC);
+		out.writeInt(FORMAT);
+
+		final AstWriter writer = new AstWriter(interpreter.getReporter());
+		writer.write(declarationList);
+		writer.writeTo(out);
+
+		AstWriter.writeVarInt(out, objects.size());
+		for (final Object object : objects) {
+			if (object == interpreter.globals) {
+				AstWriter.writeVarInt(out, GLOBALS);
+			} else if (object instanceof Environment) {
+				AstWriter.writeVarInt(out, ENVIRONMENT);
+				AstWriter.writeVarInt(out, ids.get(((Environment) object).enclosing));
+			} else if (object instanceof LoxFunction) {
+				final LoxFunction function = (LoxFunction) object;
+				AstWriter.writeVarInt(out, FUNCTION);
+				AstWriter.writeVarInt(out, declarations.get(function.getDeclaration()));
+				AstWriter.writeVarInt(out, ids.get(function.getClosure()));
+				out.writeBoolean(function.isInitializer());
+			} else if (object instanceof LoxClass) {
+				final LoxClass klass = (LoxClass) object;
+				AstWriter.writeVarInt(out, CLASS);
+				writeString(out, klass.name);
+				AstWriter.writeVarInt(out, klass.getSuperclass() == null ? 0 : ids.get(klass.getSuperclass()) + 1);
+			} else if (object instanceof LoxInstance) {
+				AstWriter.writeVarInt(out, INSTANCE);
+				AstWriter.writeVarInt(out, ids.get(((LoxInstance) object).getKlass()));
+			} else {
+				AstWriter.writeVarInt(out, NATIVE);
+				writeString(out, interpreter.getNativeName(object));
+			}
+		}
+
+		for (final Object object : objects) {
+			if (object instanceof Environment) {
+				writeEntries(out, ((Environment) object).getValues());
+			} else if (object instanceof LoxClass) {
+				writeEntries(out, ((LoxClass) object).getMethods());
+			} else if (object instanceof LoxInstance) {
+				writeEntries(out, ((LoxInstance) object).getFields());
+			}
+		}
+		out.flush();
+	}
+
+	private void writeEntries(final DataOutputStream out, final Map<String, ?> entries) throws IOException {
+		AstWriter.writeVarInt(out, entries.size());
+		for (final Map.Entry<String, ?> entry : entries.entrySet()) {
+			writeString(out, entry.getKey());
+			writeValue(out, entry.getValue());
+		}
+	}
+
+	private void writeValue(final DataOutputStream out, final Object value) throws IOException {
+		if (value == null) {
+			AstWriter.writeVarInt(out, VALUE_NIL);
+		} else if (value instanceof Boolean) {
+			AstWriter.writeVarInt(out, (Boolean) value ? VALUE_TRUE : VALUE_FALSE);
+		} else if (value instanceof Double) {
+			AstWriter.writeVarInt(out, VALUE_NUMBER);
+			out.writeDouble((Double) value);
+		} else if (Rope.isString(value)) {
+			AstWriter.writeVarInt(out, VALUE_STRING);
+			writeString(out, value.toString());
+		} else {
+			AstWriter.writeVarInt(out, VALUE_OBJECT);
+			AstWriter.writeVarInt(out, ids.get(value));
+		}
+	}
+
+	private static void writeString(final DataOutputStream out, final String string) throws IOException {
+		final byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+		AstWriter.writeVarInt(out, utf8.length);
+		out.write(utf8);
+	}
+
+	private void readFrom(final ByteBuffer buffer) throws IOException {
+		final List<Stmt> functions = new AstReader(buffer).readStatements();
+
+		final int size = AstReader.readVarInt(buffer);
+		final Object[] restored = new Object[size];
+		for (int i = 0; i < size; i++) {
+			final int kind = AstReader.readVarInt(buffer);
+			switch (kind) {
+			case GLOBALS:
+				restored[i] = interpreter.globals;
+				break;
+			case ENVIRONMENT:
+				restored[i] = new Environment((Environment) restored[AstReader.readVarInt(buffer)]);
+				break;
+			case FUNCTION: {
+				final Stmt.Function declaration = (Stmt.Function) functions.get(AstReader.readVarInt(buffer));
+				final Environment closure = (Environment) restored[AstReader.readVarInt(buffer)];
+				restored[i] = new LoxFunction(declaration, closure, buffer.get() != 0);
+				break;
+			}
+			case CLASS: {
+				final String name = readString(buffer);
+				final int superclass = AstReader.readVarInt(buffer);
+				restored[i] = new LoxClass(name, superclass == 0 ? null : (LoxClass) restored[superclass - 1],
+						Symbols.<LoxFunction>map());
+				break;
+			}
+			case INSTANCE:
+				restored[i] = new LoxInstance((LoxClass) restored[AstReader.readVarInt(buffer)]);
+				break;
+			case NATIVE: {
+				final String name = readString(buffer);
+				restored[i] = interpreter.getNative(name);
+				if (restored[i] == null) throw new IOException("Unknown native function '" + name + "'.");
+				break;
+			}
+			default:
+				throw new IOException("Unknown kind of object " + kind + ".");
+			}
+		}
+
+		for (final Object object : restored) {
+			if (object instanceof Environment) {
+				readEntries(buffer, restored, ((Environment) object).getValues());
+			} else if (object instanceof LoxClass) {
+				readEntries(buffer, restored, ((LoxClass) object).getMethods());
+			} else if (object instanceof LoxInstance) {
+				readEntries(buffer, restored, ((LoxInstance) object).getFields());
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <V> void readEntries(final ByteBuffer buffer, final Object[] restored, final Map<String, V> entries) {
+		final int size = AstReader.readVarInt(buffer);
+		for (int i = 0; i < size; i++) {
+			final String name = Symbols.intern(readString(buffer));
+			entries.put(name, (V) readValue(buffer, restored));
+		}
+	}
+
+	private static Object readValue(final ByteBuffer buffer, final Object[] restored) {
+		final int tag = AstReader.readVarInt(buffer);
+		switch (tag) {
+		case VALUE_NIL: return null;
+		case VALUE_FALSE: return false;
+		case VALUE_TRUE: return true;
+		case VALUE_NUMBER: return buffer.getDouble();
+		case VALUE_STRING: return readString(buffer);
+		case VALUE_OBJECT: return restored[AstReader.readVarInt(buffer)];
+		default: throw new IllegalStateException("Corrupted value tag " + tag + ".");
+		}
+	}
+
+	private static String readString(final ByteBuffer buffer) {
+		final byte[] utf8 = new byte[AstReader.readVarInt(buffer)];
+		buffer.get(utf8);
+		return new String(utf8, StandardCharsets.UTF_8);
+	}
+}
@@ -6,6 +6,7 @@ abstract class Stmt {
 	interface Visitor<R> {
 		R visitBlockStmt(Block stmt);
 		R visitClassStmt(Class stmt);
+		R visitCountedLoopStmt(CountedLoop stmt);
 		R visitExpressionStmt(Expression stmt);
 		R visitFunctionStmt(Function stmt);
 		R visitIfStmt(If stmt);
@@ -42,6 +43,30 @@ abstract class Stmt {
 		final Expr.Variable superclass;
 		final List<Stmt.Function> methods;
 	}
+	static class CountedLoop extends Stmt {
+		CountedLoop(Stmt.Var initializer, Expr.Binary condition, Expr.Assign increment, Stmt body) {
+			this.initializer = initializer;
+			this.condition = condition;
+			this.increment = increment;
+			this.body = body;
+		}
+
+		@Override
+		<R> R accept(final Visitor<R> visitor) {
+			return visitor.visitCountedLoopStmt(this);
+		}
+
+		final Stmt.Var initializer;
+		final Expr.Binary condition;
+		final Expr.Assign increment;
+		final Stmt body;
+		// Set by the Resolver: the variable is neither assigned nor captured by a closure.
+		boolean counted;
+		// Set by the Resolver: the body is a block which declares nothing.
+		boolean flat;
+		// Set by the Resolver: the body is a block no closure can capture, one environment serves all the iterations.
+		boolean shared;
+	}
 	static class Expression extends Stmt {
 		Expression(Expr expression) {
 			this.expression = expression;
@@ -59,6 +84,14 @@ abstract class Stmt {
 			this.name = name;
 			this.params = params;
 			this.body = body;
+			this.lazyBody = null;
+		}
+
+		Function(Token name, List<Token> params, LazyBody lazyBody) {
+			this.name = name;
+			this.params = params;
+			this.body = null;
+			this.lazyBody = lazyBody;
 		}
 
 		@Override
@@ -69,6 +102,8 @@ abstract class Stmt {
 		final Token name;
 		final List<Token> params;
 		final List<Stmt> body;
+		// Set instead of body when the parser only pre-parsed the function.
+		final LazyBody lazyBody;
 	}
 	static class If extends Stmt {
 		If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
@@ -127,7 +162,8 @@ abstract class Stmt {
 		final Expr initializer;
 	}
 	static class While extends Stmt {
-		While(Expr condition, Stmt body) {
+		While(Token keyword, Expr condition, Stmt body) {
+			this.keyword = keyword;
 			this.condition = condition;
 			this.body = body;
 		}
@@ -137,6 +173,7 @@ abstract class Stmt {
 			return visitor.visitWhileStmt(this);
 		}
 
+		final Token keyword;
 		final Expr condition;
 		final Stmt body;
 	}
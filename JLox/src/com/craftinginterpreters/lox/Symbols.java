@@ -0,0 +1,39 @@
+package com.craftinginterpreters.lox;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The names of the programs, interned so that all the occurrences of a name
+ * are the same string. The maps of the environments, instances and classes are
+ * keyed by identity on these, see {@link #map()}: a lookup compares references
+ * and never hashes or compares the characters of a name. A name put in them or
+ * looked up must therefore come from here, or be a literal of the interpreter,
+ * which Java interns the same way.
+ *
+ * The table is the string table of the JVM, which finds a name without taking
+ * a lock, as the scanners of several threads intern at once, and drops the
+ * names nothing uses anymore, so that a long session evaluating ever new code,
+ * such as the prompt or an embedding, does not keep every name it ever saw.
+ */
+public final class Symbols {
+	// Most environments hold a few names, the maps grow past it.
+	private static final int EXPECTED_NAMES = 4;
+
+	private Symbols() {
+	}
+
+	/**
+	 * @return the one string of the name.
+	 */
+	static String intern(final String name) {
+		return name.intern();
+	}
+
+	/**
+	 * @return an empty map keyed by the identity of the names.
+	 */
+	static <V> Map<String, V> map() {
+		return new IdentityHashMap<>(EXPECTED_NAMES);
+	}
+}
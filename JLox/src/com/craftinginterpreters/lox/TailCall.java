@@ -0,0 +1,17 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+/**
+ * A call made by a return statement, returned to the calling LoxFunction to
+ * make instead of being made on top of the returning one.
+ */
+final class TailCall {
+	final LoxFunction function;
+	final List<Object> arguments;
+
+	TailCall(final LoxFunction function, final List<Object> arguments) {
+		this.function = function;
+		this.arguments = arguments;
+	}
+}
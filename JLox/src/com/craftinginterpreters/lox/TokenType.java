@@ -16,6 +16,8 @@ public enum TokenType {
 	  PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE, BREAK,
 	  
 	  STRING,
+	  // The text of a string up to an interpolated "${", the rest is a STRING.
+	  STRING_PART,
 	  NUMBER,
 	  IDENTIFIER,
 	  
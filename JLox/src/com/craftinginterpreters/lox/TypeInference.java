@@ -0,0 +1,402 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Infers the types of the local variables and of the expressions of resolved
+ * statements, following the flow of each function, and marks the binary
+ * operations whose operands are numbers for sure so that the interpreter skips
+ * their checks and keeps their arithmetic unboxed.
+ *
+ * Only the locals of a function which no other function can see are followed:
+ * globals may be assigned by any call, and locals captured by a closure (or
+ * possibly captured, by the unparsed body of a lazy function) by any call of
+ * the closure. Everything the pass cannot prove is unknown, and every
+ * arithmetic or comparison left unmarked is kept for {@link #report}.
+ */
+public class TypeInference implements Expr.Visitor<TypeInference.Type>, Stmt.Visitor<Void> {
+	public enum Type {
+		NIL, BOOLEAN, NUMBER, STRING, INSTANCE, UNKNOWN;
+
+		Type join(final Type other) {
+			return this == other ? this : UNKNOWN;
+		}
+	}
+
+	// The first pass only finds the captured locals, the second one infers.
+	private boolean inferring = false;
+	private final Set<Token> captured = Collections.newSetFromMap(new IdentityHashMap<Token, Boolean>());
+	// The locals in scope by name, innermost last, and the function of each.
+	private final Deque<Map<String, Token>> scopes = new ArrayDeque<>();
+	private final Map<Token, Integer> functionOf = new IdentityHashMap<>();
+	private int function = 0;
+	// The type of every followed local at the current point of the flow.
+	private Map<Token, Type> types = new IdentityHashMap<>();
+	private final Map<Expr.Binary, String> failures = new LinkedHashMap<>();
+
+	public void infer(final List<Stmt> statements) {
+		inferring = false;
+		visitAll(statements);
+		inferring = true;
+		visitAll(statements);
+	}
+
+	/**
+	 * Infer the body of a function compiled on its own, see {@link LazyBody}:
+	 * the names of the enclosing functions are unknown there.
+	 */
+	public void infer(final List<Token> params, final List<Stmt> body) {
+		inferring = false;
+		visitFunction(params, body);
+		inferring = true;
+		visitFunction(params, body);
+	}
+
+	/**
+	 * Print where the pass could not prove that the operands of an arithmetic
+	 * or a comparison are numbers, and why.
+	 */
+	public void report(final PrintStream out) {
+		final List<Map.Entry<Expr.Binary, String>> entries = new ArrayList<>(failures.entrySet());
+		entries.sort((a, b) -> Integer.compare(a.getKey().operator.line, b.getKey().operator.line));
+		for (final Map.Entry<Expr.Binary, String> entry : entries) {
+			out.println("[line " + entry.getKey().operator.line + "] '" + entry.getKey().operator.lexeme + "': "
+					+ entry.getValue());
+		}
+		out.println(entries.size() + " operations left unspecialized.");
+	}
+
+	private void visitAll(final List<Stmt> statements) {
+		for (final Stmt statement : statements) {
+			statement.accept(this);
+		}
+	}
+
+	private Type visit(final Expr expr) {
+		return expr.accept(this);
+	}
+
+	private void declare(final Token name, final Type type) {
+		if (scopes.isEmpty()) return;
+		scopes.peekLast().put(name.lexeme, name);
+		functionOf.put(name, function);
+		if (inferring && !captured.contains(name)) types.put(name, type);
+	}
+
+	/**
+	 * @return the declaration of a local, or null for a global or a name of an
+	 *         enclosing function the pass did not see.
+	 */
+	private Token lookUp(final Token name, final int depth) {
+		if (depth == Expr.GLOBAL) return null;
+		final java.util.Iterator<Map<String, Token>> scope = scopes.descendingIterator();
+		while (scope.hasNext()) {
+			final Token declaration = scope.next().get(name.lexeme);
+			if (declaration != null) {
+				if (functionOf.get(declaration) != function) captured.add(declaration);
+				return declaration;
+			}
+		}
+		return null;
+	}
+
+	private void beginScope() {
+		scopes.addLast(new HashMap<String, Token>());
+	}
+
+	private void endScope() {
+		for (final Token declaration : scopes.removeLast().values()) {
+			types.remove(declaration);
+		}
+	}
+
+	/*
+	 * Types from two paths of the flow meeting again, a local known on one
+	 * path only is unknown.
+	 */
+	private static Map<Token, Type> join(final Map<Token, Type> a, final Map<Token, Type> b) {
+		final Map<Token, Type> joined = new IdentityHashMap<>();
+		for (final Map.Entry<Token, Type> entry : a.entrySet()) {
+			final Type other = b.get(entry.getKey());
+			joined.put(entry.getKey(), other == null ? Type.UNKNOWN : entry.getValue().join(other));
+		}
+		return joined;
+	}
+
+	private void visitFunction(final List<Token> params, final List<Stmt> body) {
+		final Map<Token, Type> enclosingTypes = types;
+		types = new IdentityHashMap<>();
+		function++;
+		beginScope();
+		for (final Token param : params) {
+			declare(param, Type.UNKNOWN);
+		}
+		visitAll(body);
+		endScope();
+		function--;
+		types = enclosingTypes;
+	}
+
+	private void visitFunction(final Stmt.Function declaration) {
+		if (declaration.body != null) {
+			visitFunction(declaration.params, declaration.body);
+			return;
+		}
+		// An unparsed body may assign any local in scope.
+		for (final Map<String, Token> scope : scopes) {
+			captured.addAll(scope.values());
+		}
+	}
+
+	@Override
+	public Void visitBlockStmt(final Stmt.Block stmt) {
+		beginScope();
+		visitAll(stmt.statements);
+		endScope();
+		return null;
+	}
+
+	@Override
+	public Void visitClassStmt(final Stmt.Class stmt) {
+		declare(stmt.name, Type.UNKNOWN);
+		if (stmt.superclass != null) visit(stmt.superclass);
+		for (final Stmt.Function method : stmt.methods) {
+			visitFunction(method);
+		}
+		return null;
+	}
+
+	/*
+	 * The loop the for statement would be otherwise, see visitWhileStmt.
+	 */
+	@Override
+	public Void visitCountedLoopStmt(final Stmt.CountedLoop stmt) {
+		beginScope();
+		stmt.initializer.accept(this);
+		for (;;) {
+			final Map<Token, Type> before = new IdentityHashMap<>(types);
+			visit(stmt.condition);
+			if (stmt.flat) {
+				visitAll(((Stmt.Block) stmt.body).statements);
+			} else {
+				stmt.body.accept(this);
+			}
+			visit(stmt.increment);
+			types = join(before, types);
+			if (types.equals(before)) break;
+		}
+		endScope();
+		return null;
+	}
+
+	@Override
+	public Void visitExpressionStmt(final Stmt.Expression stmt) {
+		visit(stmt.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitFunctionStmt(final Stmt.Function stmt) {
+		declare(stmt.name, Type.UNKNOWN);
+		visitFunction(stmt);
+		return null;
+	}
+
+	@Override
+	public Void visitIfStmt(final Stmt.If stmt) {
+		visit(stmt.condition);
+		final Map<Token, Type> before = new IdentityHashMap<>(types);
+		stmt.thenBranch.accept(this);
+		final Map<Token, Type> afterThen = types;
+		types = before;
+		if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+		types = join(afterThen, types);
+		return null;
+	}
+
+	@Override
+	public Void visitPrintStmt(final Stmt.Print stmt) {
+		visit(stmt.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitReturnStmt(final Stmt.Return stmt) {
+		if (stmt.value != null) visit(stmt.value);
+		return null;
+	}
+
+	@Override
+	public Void visitVarStmt(final Stmt.Var stmt) {
+		final Type type = stmt.initializer != null ? visit(stmt.initializer) : Type.NIL;
+		declare(stmt.name, type);
+		return null;
+	}
+
+	/*
+	 * Go round the loop until the types at its start stop changing, the last
+	 * round is the one whose marks stay.
+	 */
+	@Override
+	public Void visitWhileStmt(final Stmt.While stmt) {
+		for (;;) {
+			final Map<Token, Type> before = new IdentityHashMap<>(types);
+			visit(stmt.condition);
+			stmt.body.accept(this);
+			types = join(before, types);
+			if (types.equals(before)) return null;
+		}
+	}
+
+	@Override
+	public Type visitAssignExpr(final Expr.Assign expr) {
+		final Type type = visit(expr.value);
+		final Token declaration = lookUp(expr.name, expr.depth);
+		if (declaration != null && inferring && !captured.contains(declaration)) types.put(declaration, type);
+		return type;
+	}
+
+	@Override
+	public Type visitBinaryExpr(final Expr.Binary expr) {
+		final Type left = visit(expr.left);
+		final Type right = visit(expr.right);
+		final boolean numbers = left == Type.NUMBER && right == Type.NUMBER;
+
+		final Type type;
+		switch (expr.operator.type) {
+		case BANG_EQUAL:
+		case EQUAL_EQUAL:
+			return Type.BOOLEAN;
+		case GREATER:
+		case GREATER_EQUAL:
+		case LESS:
+		case LESS_EQUAL:
+			type = Type.BOOLEAN;
+			break;
+		case PLUS:
+			if (!numbers && (left == Type.STRING || right == Type.STRING)
+					&& (left == Type.STRING || left == Type.NUMBER) && (right == Type.STRING || right == Type.NUMBER)) {
+				// A concatenation, whose checks are not the ones of arithmetic.
+				if (inferring) expr.numeric = false;
+				return Type.STRING;
+			}
+			type = numbers ? Type.NUMBER : Type.UNKNOWN;
+			break;
+		default:
+			type = Type.NUMBER;
+			break;
+		}
+
+		if (inferring) {
+			expr.numeric = numbers;
+			if (numbers) {
+				failures.remove(expr);
+			} else {
+				failures.put(expr, "left is " + describe(expr.left, left) + ", right is " + describe(expr.right, right) + ".");
+			}
+		}
+		return type;
+	}
+
+	private String describe(final Expr expr, final Type type) {
+		final String name = type.name().toLowerCase();
+		if (type != Type.UNKNOWN) return name;
+		if (expr instanceof Expr.Variable) {
+			final Expr.Variable variable = (Expr.Variable) expr;
+			if (variable.depth == Expr.GLOBAL) return "the global '" + variable.name.lexeme + "'";
+			final Token declaration = lookUp(variable.name, variable.depth);
+			if (declaration == null) return "'" + variable.name.lexeme + "' of an enclosing function";
+			if (captured.contains(declaration)) return "'" + variable.name.lexeme + "' captured by a closure";
+			return "'" + variable.name.lexeme + "' of no single type";
+		}
+		if (expr instanceof Expr.Call) return "the result of a call";
+		if (expr instanceof Expr.Get) return "a property";
+		return name;
+	}
+
+	@Override
+	public Type visitCallExpr(final Expr.Call expr) {
+		visit(expr.callee);
+		for (final Expr argument : expr.arguments) {
+			visit(argument);
+		}
+		return Type.UNKNOWN;
+	}
+
+	@Override
+	public Type visitGetExpr(final Expr.Get expr) {
+		visit(expr.object);
+		return Type.UNKNOWN;
+	}
+
+	@Override
+	public Type visitGroupingExpr(final Expr.Grouping expr) {
+		return visit(expr.expression);
+	}
+
+	@Override
+	public Type visitInterpolationExpr(final Expr.Interpolation expr) {
+		for (final Expr expression : expr.expressions) {
+			visit(expression);
+		}
+		return Type.STRING;
+	}
+
+	@Override
+	public Type visitLiteralExpr(final Expr.Literal expr) {
+		if (expr.value == null) return Type.NIL;
+		if (expr.value instanceof Boolean) return Type.BOOLEAN;
+		if (expr.value instanceof Double) return Type.NUMBER;
+		return Type.STRING;
+	}
+
+	@Override
+	public Type visitLogicalExpr(final Expr.Logical expr) {
+		final Type left = visit(expr.left);
+		// The right operand may not run.
+		final Map<Token, Type> before = new IdentityHashMap<>(types);
+		final Type right = visit(expr.right);
+		types = join(before, types);
+		return left.join(right);
+	}
+
+	@Override
+	public Type visitSetExpr(final Expr.Set expr) {
+		visit(expr.object);
+		return visit(expr.value);
+	}
+
+	@Override
+	public Type visitSuperExpr(final Expr.Super expr) {
+		return Type.UNKNOWN;
+	}
+
+	@Override
+	public Type visitThisExpr(final Expr.This expr) {
+		return Type.INSTANCE;
+	}
+
+	@Override
+	public Type visitUnaryExpr(final Expr.Unary expr) {
+		visit(expr.right);
+		return expr.operator.type == TokenType.MINUS ? Type.NUMBER : Type.BOOLEAN;
+	}
+
+	@Override
+	public Type visitVariableExpr(final Expr.Variable expr) {
+		final Token declaration = lookUp(expr.name, expr.depth);
+		if (declaration == null || captured.contains(declaration)) return Type.UNKNOWN;
+		final Type type = types.get(declaration);
+		return type != null ? type : Type.UNKNOWN;
+	}
+}
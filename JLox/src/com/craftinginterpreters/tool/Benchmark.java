@@ -0,0 +1,331 @@
+/**
+ *
+ */
+package com.craftinginterpreters.tool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.craftinginterpreters.lox.Context;
+import com.craftinginterpreters.lox.ContextPool;
+import com.craftinginterpreters.lox.ErrorReporter;
+import com.craftinginterpreters.lox.Limits;
+import com.craftinginterpreters.lox.LineProcessor;
+import com.craftinginterpreters.lox.LoxEngine;
+import com.craftinginterpreters.lox.Program;
+import com.craftinginterpreters.lox.ProgramCache;
+
+/**
+ * Benchmarks of the interpreter.
+ *
+ * startup: time to first print and total time of scripts, each run in a new
+ * process, e.g. with the jlox launcher and its class-data-sharing archive:
+ *
+ * <pre>
+ * java -cp bin com.craftinginterpreters.tool.Benchmark startup --command "./jlox" ../sample/*
+ * </pre>
+ *
+ * engine: runs per second of a script compiled once by a {@link LoxEngine} and
+ * run in one context per thread, for 1 up to the given number of threads.
+ *
+ * lines: throughput in MB/s of a script run per line of generated log lines by
+ * a {@link LineProcessor}, in order and then in 2 up to the given number of
+ * parallel jobs.
+ *
+ * limits: time of a script run without {@link Limits} and with limits too
+ * high to be reached, to measure what checking them costs.
+ *
+ * soak: evaluates ever new snippets in one context, as a long session at the
+ * prompt or in an embedding would, and prints the heap and the programs kept
+ * along the way. They must stay flat: once the cache of programs is full, a
+ * round which keeps more than the first one, past the slack given, fails the
+ * benchmark with the status 1.
+ */
+public class Benchmark {
+	public static void main(final String[] args) throws IOException, InterruptedException {
+		if (args.length < 1) usage();
+
+		final List<String> rest = new ArrayList<>(Arrays.asList(args).subList(1, args.length));
+		switch (args[0]) {
+		case "startup":
+			startup(rest);
+			break;
+		case "engine":
+			engine(rest);
+			break;
+		case "lines":
+			lines(rest);
+			break;
+		case "limits":
+			limits(rest);
+			break;
+		case "soak":
+			if (!soak(rest)) System.exit(1);
+			break;
+		default:
+			usage();
+		}
+	}
+
+	private static void usage() {
+		System.err.println("Usage: benchmark startup [--runs n] [--command \"java ...\"] script...");
+		System.err.println("       benchmark engine [--threads n] [--seconds n] script");
+		System.err.println("       benchmark lines [--jobs n] [--mb n] [--runs n] script");
+		System.err.println("       benchmark limits [--runs n] script");
+		System.err.println("       benchmark soak [--evals n] [--heap-slack mb]");
+		System.exit(64);
+	}
+
+	private static int intOption(final List<String> args, final String name, final int value) {
+		final int index = args.indexOf(name);
+		if (index < 0 || index + 1 >= args.size()) return value;
+		final int result = Integer.parseInt(args.get(index + 1));
+		args.subList(index, index + 2).clear();
+		return result;
+	}
+
+	private static String option(final List<String> args, final String name, final String value) {
+		final int index = args.indexOf(name);
+		if (index < 0 || index + 1 >= args.size()) return value;
+		final String result = args.get(index + 1);
+		args.subList(index, index + 2).clear();
+		return result;
+	}
+
+	private static void startup(final List<String> args) throws IOException, InterruptedException {
+		final int runs = intOption(args, "--runs", 10);
+		final String command = option(args, "--command",
+				"java -cp " + System.getProperty("java.class.path") + " com.craftinginterpreters.lox.Lox");
+		if (args.isEmpty()) usage();
+
+		System.out.printf("%-40s %12s %12s%n", "script", "first print", "total");
+		for (final String script : args) {
+			final long[] firstPrint = new long[runs];
+			final long[] total = new long[runs];
+			for (int run = 0; run < runs; run++) {
+				final List<String> line = new ArrayList<>(Arrays.asList(command.trim().split("\\s+")));
+				line.add(script);
+
+				final long start = System.nanoTime();
+				final Process process = new ProcessBuilder(line).redirectErrorStream(true).start();
+				final InputStream output = process.getInputStream();
+				firstPrint[run] = output.read() < 0 ? -1 : System.nanoTime() - start;
+				final byte[] buffer = new byte[8192];
+				while (output.read(buffer) >= 0) {
+					// Drain the output so the script never blocks on it.
+				}
+				process.waitFor();
+				total[run] = System.nanoTime() - start;
+			}
+			System.out.printf("%-40s %10.1fms %10.1fms%n", script, median(firstPrint) / 1e6, median(total) / 1e6);
+		}
+	}
+
+	private static double median(final long[] values) {
+		final long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		final int middle = sorted.length / 2;
+		if (sorted.length % 2 == 1) return sorted[middle];
+		return (sorted[middle - 1] + sorted[middle]) / 2.0;
+	}
+
+	private static void engine(final List<String> args) throws IOException, InterruptedException {
+		final int maxThreads = intOption(args, "--threads", Runtime.getRuntime().availableProcessors());
+		final int seconds = intOption(args, "--seconds", 3);
+		if (args.size() != 1) usage();
+
+		final String source = new String(Files.readAllBytes(Paths.get(args.get(0))), StandardCharsets.UTF_8);
+		final LoxEngine engine = new LoxEngine();
+		final Program program = engine.compile(source, new ErrorReporter(System.err));
+		if (program == null) System.exit(65);
+
+		System.out.printf("%8s %12s %8s%n", "threads", "runs/s", "speedup");
+		double single = 0;
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			final AtomicLong runs = new AtomicLong();
+			final long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+			final List<Thread> workers = new ArrayList<>();
+			for (int i = 0; i < threads; i++) {
+				final Thread worker = new Thread(() -> {
+					// A stream per thread, a shared PrintStream would serialize the threads.
+					final PrintStream discard = discard();
+					while (System.nanoTime() < deadline) {
+						engine.newContext(discard, discard).run(program);
+						runs.incrementAndGet();
+					}
+				});
+				workers.add(worker);
+				worker.start();
+			}
+			for (final Thread worker : workers) {
+				worker.join();
+			}
+
+			final double perSecond = runs.get() / (double) seconds;
+			if (threads == 1) single = perSecond;
+			System.out.printf("%8d %12.1f %7.2fx%n", threads, perSecond, perSecond / single);
+		}
+	}
+
+	private static void lines(final List<String> args) throws IOException, InterruptedException {
+		final int maxJobs = intOption(args, "--jobs", Runtime.getRuntime().availableProcessors());
+		final int megabytes = intOption(args, "--mb", 64);
+		final int runs = intOption(args, "--runs", 3);
+		if (args.size() != 1) usage();
+
+		final String source = new String(Files.readAllBytes(Paths.get(args.get(0))), StandardCharsets.UTF_8);
+		final LoxEngine engine = new LoxEngine();
+		final Program program = engine.compile(source, new ErrorReporter(System.err));
+		if (program == null) System.exit(65);
+
+		final Path input = Files.createTempFile("lines", ".log");
+		try {
+			try (final Writer writer = Files.newBufferedWriter(input, StandardCharsets.UTF_8)) {
+				final long size = megabytes * 1024L * 1024L;
+				for (long written = 0, i = 0; written < size; i++) {
+					final String line = "2024-01-01T00:00:" + (i % 60) + " host" + (i % 17) + " GET /item/" + i
+							+ " 200 " + (i * 31 % 5000) + "\n";
+					writer.write(line);
+					written += line.length();
+				}
+			}
+
+			System.out.printf("%8s %12s%n", "jobs", "MB/s");
+			for (int jobs = 1; jobs <= maxJobs; jobs = jobs == 1 ? 2 : jobs * 2) {
+				final LineProcessor processor = new LineProcessor(new ContextPool(engine, null, jobs), program, true,
+						jobs);
+				final long[] nanos = new long[runs];
+				for (int run = 0; run < runs; run++) {
+					final long start = System.nanoTime();
+					try (final FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+						processor.process(channel, StandardCharsets.UTF_8, discard());
+					}
+					nanos[run] = System.nanoTime() - start;
+				}
+				System.out.printf("%8d %12.1f%n", jobs, megabytes / (median(nanos) / 1e9));
+			}
+		} finally {
+			Files.delete(input);
+		}
+	}
+
+	private static void limits(final List<String> args) throws IOException {
+		final int runs = intOption(args, "--runs", 10);
+		if (args.size() != 1) usage();
+
+		final String source = new String(Files.readAllBytes(Paths.get(args.get(0))), StandardCharsets.UTF_8);
+		final LoxEngine engine = new LoxEngine();
+		final Program program = engine.compile(source, new ErrorReporter(System.err));
+		if (program == null) System.exit(65);
+
+		final Limits limits = new Limits();
+		limits.setMaxSteps(Long.MAX_VALUE - 1);
+		limits.setTimeout(1, TimeUnit.DAYS);
+		limits.setMaxDepth(LoxEngine.DEFAULT_MAX_DEPTH);
+		limits.setMaxAllocation(Long.MAX_VALUE - 1);
+
+		// Alternate the two so that the warm-up of the JIT is shared.
+		final long[] without = new long[runs];
+		final long[] with = new long[runs];
+		final Context context = engine.newContext(discard(), System.err);
+		for (int run = 0; run < runs; run++) {
+			context.setLimits(null);
+			long start = System.nanoTime();
+			context.run(program);
+			without[run] = System.nanoTime() - start;
+
+			context.setLimits(limits);
+			start = System.nanoTime();
+			context.run(program);
+			with[run] = System.nanoTime() - start;
+		}
+		final double base = median(without);
+		final double limited = median(with);
+		System.out.printf("%-12s %10.1fms%n", "no limits", base / 1e6);
+		System.out.printf("%-12s %10.1fms %+.1f%%%n", "limits", limited / 1e6, (limited / base - 1) * 100);
+	}
+
+	// The programs the soak keeps, so that a full cache is known.
+	private static final int SOAK_PROGRAMS = 1024;
+
+	/*
+	 * @return whether the heap and the programs stayed within the bounds.
+	 */
+	private static boolean soak(final List<String> args) {
+		final int evals = intOption(args, "--evals", 1_000_000);
+		final long heapSlack = intOption(args, "--heap-slack", 16) * 1_000_000L;
+		if (!args.isEmpty()) usage();
+
+		final LoxEngine engine = new LoxEngine(false, null, new ProgramCache(SOAK_PROGRAMS, 64L * 1024 * 1024));
+		final Context context = engine.newContext(discard(), discard());
+		// The first round starts with a full cache of programs, the others are measured against it.
+		final int warmUp = 2 * SOAK_PROGRAMS;
+		long firstHeap = -1;
+		boolean flat = true;
+		final long start = System.nanoTime();
+		System.out.printf("%10s %10s %10s %10s%n", "evals", "heap", "programs", "time");
+		for (int i = 1; i <= warmUp + evals; i++) {
+			// New names and a new source each time, in a block so the globals stay.
+			context.eval("{ var a" + i + " = " + i + "; fun f" + i + "(x) { return x + a" + i + "; }"
+					+ " class C" + i + " { init(v) { this.v" + i + " = v; } }"
+					+ " print C" + i + "(f" + i + "(1)).v" + i + "; }"
+					+ (i % 1000 == 0 ? " nil();" : ""));
+			if (i > warmUp && (i - warmUp) % Math.max(1, evals / 10) == 0) {
+				// Collected first, so that the dropped programs are gone. A collection may leave
+				// some, which is not a leak unless the next ones leave them too.
+				long heap = usedHeap();
+				for (int retry = 0; retry < 5 && firstHeap >= 0 && heap > firstHeap + heapSlack; retry++) {
+					heap = usedHeap();
+				}
+				final int programs = engine.getPrograms().size();
+				System.out.printf("%10d %8.1fMB %10d %9.1fs%n", i - warmUp, heap / 1e6, programs,
+						(System.nanoTime() - start) / 1e9);
+				if (firstHeap < 0) {
+					firstHeap = heap;
+				}
+				if (heap > firstHeap + heapSlack) {
+					System.out.printf("The heap grew from %.1fMB to %.1fMB.%n", firstHeap / 1e6, heap / 1e6);
+					flat = false;
+				}
+				if (programs > SOAK_PROGRAMS) {
+					System.out.println("The cache keeps " + programs + " programs, more than " + SOAK_PROGRAMS + ".");
+					flat = false;
+				}
+			}
+		}
+		return flat;
+	}
+
+	private static long usedHeap() {
+		final Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static PrintStream discard() {
+		return new PrintStream(new OutputStream() {
+			@Override
+			public void write(final int b) {
+			}
+
+			@Override
+			public void write(final byte[] b, final int off, final int len) {
+			}
+		});
+	}
+}
@@ -0,0 +1,78 @@
+/**
+ *
+ */
+package com.craftinginterpreters.tool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import com.craftinginterpreters.lox.Context;
+import com.craftinginterpreters.lox.LoxEngine;
+
+/**
+ * Runs a script, reloads a new version of it into the same context, runs a
+ * last script and checks what it prints, for each case below, e.g.:
+ *
+ * <pre>
+ * java -cp bin com.craftinginterpreters.tool.CheckReload
+ * </pre>
+ */
+public class CheckReload {
+	// The script, its new version, the script run after the reload and what it prints.
+	private static final String[][] CASES = {
+			{ "fun f() { print \"f1\"; } var h = f;",
+					"fun f() { print \"f2\"; }",
+					"f(); h();",
+					"f2\nf2\n" },
+			{ "fun g() { print \"g1\"; } var f = g;",
+					"fun f() { print \"f2\"; }",
+					"g(); f();",
+					"g1\nf2\n" },
+			{ "class A { m() { print \"m1\"; } } var a = A(); var m = a.m;",
+					"class A { m() { print \"m2\"; } n() { print \"n\"; } }",
+					"a.m(); m(); a.n();",
+					"m2\nm2\nn\n" },
+			{ "class B { m() { print \"b\"; } } var C = B;",
+					"class C { m() { print \"c\"; } }",
+					"B().m(); C().m();",
+					"b\nc\n" },
+			{ "var x = 1; fun get() { return x; } x = 2;",
+					"var x = 3; var y = 4; fun get() { return x + y; }",
+					"print get();",
+					"6\n" },
+	};
+
+	public static void main(final String[] args) {
+		int failed = 0;
+		for (int i = 0; i < CASES.length; i++) {
+			final String failure = check(CASES[i]);
+			if (failure != null) {
+				failed++;
+				System.out.println("FAIL case " + (i + 1) + ": " + failure);
+			}
+		}
+		System.out.println("== " + CASES.length + " cases: " + (CASES.length - failed) + " passed, " + failed
+				+ " failed");
+		System.exit(failed == 0 ? 0 : 1);
+	}
+
+	/*
+	 * @return what the reload did wrong, or null.
+	 */
+	private static String check(final String[] reload) {
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		final PrintStream out = new PrintStream(buffer, true);
+		final Context context = new LoxEngine().newContext(out, System.err);
+		int status = context.eval(reload[0]);
+		if (status == 0) status = context.reload(reload[1]);
+		if (status != 0) return "exit status " + status + " before the last script";
+		buffer.reset();
+		status = context.eval(reload[2]);
+		context.getInterpreter().flush();
+		final String output = new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+		if (status != 0) return "exit status " + status;
+		if (!output.equals(reload[3])) return "printed '" + output + "' instead of '" + reload[3] + "'";
+		return null;
+	}
+}
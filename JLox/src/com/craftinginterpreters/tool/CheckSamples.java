@@ -0,0 +1,122 @@
+/**
+ *
+ */
+package com.craftinginterpreters.tool;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs sample scripts, each in a new process, and checks what they print
+ * against the expectations written in their comments:
+ *
+ * <pre>
+ * // args: --max-steps 1000           options given before the script
+ * print "hi"; // expect: hi           a line of the output, in order
+ * // expect error: Stack overflow.    a line of the errors, in order
+ * </pre>
+ *
+ * A script expecting errors must exit with a runtime error, the others without
+ * any. The scripts without expectations are skipped, e.g.:
+ *
+ * <pre>
+ * java -cp bin com.craftinginterpreters.tool.CheckSamples ../sample/*
+ * </pre>
+ */
+public class CheckSamples {
+	private static final Pattern EXPECT = Pattern.compile("// expect( error)?: (.*)$");
+	private static final String ARGS = "// args: ";
+
+	public static void main(final String[] args) throws IOException, InterruptedException {
+		final List<String> rest = new ArrayList<>(Arrays.asList(args));
+		String command = "java -cp " + System.getProperty("java.class.path") + " com.craftinginterpreters.lox.Lox";
+		final int index = rest.indexOf("--command");
+		if (index >= 0 && index + 1 < rest.size()) {
+			command = rest.get(index + 1);
+			rest.subList(index, index + 2).clear();
+		}
+		if (rest.isEmpty()) {
+			System.err.println("Usage: check_samples [--command \"java ...\"] script...");
+			System.exit(64);
+		}
+
+		int passed = 0;
+		int failed = 0;
+		int skipped = 0;
+		for (final String script : rest) {
+			final List<String> out = new ArrayList<>();
+			final List<String> err = new ArrayList<>();
+			final List<String> options = new ArrayList<>();
+			for (final String line : Files.readAllLines(Paths.get(script), StandardCharsets.UTF_8)) {
+				if (line.startsWith(ARGS)) {
+					options.addAll(Arrays.asList(line.substring(ARGS.length()).trim().split("\\s+")));
+				}
+				final Matcher matcher = EXPECT.matcher(line);
+				if (matcher.find()) {
+					(matcher.group(1) != null ? err : out).add(matcher.group(2));
+				}
+			}
+			if (out.isEmpty() && err.isEmpty()) {
+				skipped++;
+				continue;
+			}
+
+			final List<String> line = new ArrayList<>(Arrays.asList(command.trim().split("\\s+")));
+			line.addAll(options);
+			line.add(script);
+			final String failure = check(line, out, err);
+			if (failure == null) {
+				passed++;
+			} else {
+				failed++;
+				System.out.println("FAIL " + script + ": " + failure);
+			}
+		}
+		System.out.println("== " + rest.size() + " samples: " + passed + " passed, " + failed + " failed, " + skipped
+				+ " without expectations");
+		System.exit(failed == 0 ? 0 : 1);
+	}
+
+	/*
+	 * @return what the script did wrong, or null.
+	 */
+	private static String check(final List<String> line, final List<String> out, final List<String> err)
+			throws IOException, InterruptedException {
+		final Path outFile = Files.createTempFile("sample", ".out");
+		final Path errFile = Files.createTempFile("sample", ".err");
+		try {
+			final Process process = new ProcessBuilder(line).redirectOutput(outFile.toFile())
+					.redirectError(errFile.toFile()).start();
+			final int status = process.waitFor();
+			final String output = compare("output", out, Files.readAllLines(outFile, StandardCharsets.UTF_8));
+			if (output != null) return output;
+			final String errors = compare("error", err, Files.readAllLines(errFile, StandardCharsets.UTF_8));
+			if (errors != null) return errors;
+			final int expected = err.isEmpty() ? 0 : 70;
+			if (status != expected) return "exit status " + status + " instead of " + expected;
+			return null;
+		} finally {
+			Files.delete(outFile);
+			Files.delete(errFile);
+		}
+	}
+
+	private static String compare(final String what, final List<String> expected, final List<String> actual) {
+		for (int i = 0; i < Math.max(expected.size(), actual.size()); i++) {
+			final String wanted = i < expected.size() ? expected.get(i) : "(nothing)";
+			final String got = i < actual.size() ? actual.get(i) : "(nothing)";
+			if (!wanted.equals(got)) {
+				return what + " line " + (i + 1) + " is '" + got + "' instead of '" + wanted + "'";
+			}
+		}
+		return null;
+	}
+}
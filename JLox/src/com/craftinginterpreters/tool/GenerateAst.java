@@ -5,26 +5,54 @@ package com.craftinginterpreters.tool;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author Admin
  *
  */
 public class GenerateAst {
+	// The fields the passes set after parsing, by node, and the comment on each field which has one.
+	private static final Map<String, List<String>> MUTABLE_FIELDS = new HashMap<>();
+	private static final Map<String, String> COMMENTS = new HashMap<>();
+
 	public static void main(String[] args) throws IOException {
 		if (args.length != 1) {
 			System.err.println("Usage: generate_ast <output_directory>");
 			System.exit(64);
 		}
 		String outputDir = args[0];
+		field("Expr.Assign", "int depth = GLOBAL", "Set by the Resolver.");
+		field("Expr.Binary", "boolean numeric", "Set by the TypeInference.");
+		field("Expr.Call", "boolean tail", "Set by the Resolver: the value of a return statement of a function.");
+		field("Expr.Super", "int depth = GLOBAL", "Set by the Resolver.");
+		field("Expr.This", "int depth = GLOBAL", "Set by the Resolver.");
+		field("Expr.Variable", "int depth = GLOBAL", "Set by the Resolver.");
+		field("Expr.Variable", "int counter = NO_COUNTER",
+				"Set by the Resolver: how many counted loops in from the one whose counter it reads.");
+		field("Stmt.CountedLoop", "boolean counted",
+				"Set by the Resolver: the variable is neither assigned nor captured by a closure.");
+		field("Stmt.CountedLoop", "boolean flat", "Set by the Resolver: the body is a block which declares nothing.");
+		field("Stmt.CountedLoop", "boolean shared",
+				"Set by the Resolver: the body is a block no closure can capture, one environment serves all the iterations.");
+		COMMENTS.put("Stmt.Function.lazyBody", "Set instead of body when the parser only pre-parsed the function.");
+
 		defineAst(outputDir, "Expr", Arrays.asList(
+				"// Depth of a variable which the Resolver did not find in any scope.",
+				"static final int GLOBAL = -1;",
+				"// Counter of a variable which is read from its environment.",
+				"static final int NO_COUNTER = -1;"), Arrays.asList(
 				"Assign : Token name, Expr value",
 				"Binary : Expr left, Token operator, Expr right",
 				"Call	: Expr callee, Token paren, List<Expr> arguments",
 				"Get 	: Expr object, Token name",
 				"Grouping : Expr expression", 
+				"Interpolation : List<String> strings, List<Expr> expressions",
 				"Literal : Object value",
 				"Logical : Expr left, Token operator, Expr right",
 				"Set	 : Expr object, Token name, Expr value",
@@ -33,31 +61,50 @@ public class GenerateAst {
 				"Unary : Token operator, Expr right",
 				"Variable : Token name"
 				));
-		defineAst(outputDir, "Stmt", Arrays.asList(
+		defineAst(outputDir, "Stmt", Collections.<String>emptyList(), Arrays.asList(
 				"Block		: List<Stmt> statements",
 				"Class      : Token name, Expr.Variable superclass," +
 		                  " List<Stmt.Function> methods",
+				"CountedLoop : Stmt.Var initializer, Expr.Binary condition," +
+						" Expr.Assign increment, Stmt body",
 				"Expression	: Expr expression",
+				// A function has a constructor for each list of fields, separated by '|'.
 				"Function	: Token name, List<Token> params," +
-				" List<Stmt> body",
+				" List<Stmt> body | Token name, List<Token> params, LazyBody lazyBody",
 				"If			: Expr condition, Stmt thenBranch," +
 							" Stmt elseBranch",
 				"Print		: Expr expression",
 				"Return		: Token keyword, Expr value",
 				"Var		: Token name, Expr initializer",
-				"While		: Expr condition, Stmt body"
+				"While		: Token keyword, Expr condition, Stmt body"
 				));
 	}
 
-	private static void defineAst(final String outputDir, final String baseName, final List<String> types)
-			throws IOException {
+	private static void field(final String type, final String declaration, final String comment) {
+		MUTABLE_FIELDS.computeIfAbsent(type, key -> new ArrayList<>()).add(declaration);
+		COMMENTS.put(type + "." + name(declaration), comment);
+	}
+
+	// The name in a declaration such as "Token name" or "int depth = GLOBAL".
+	private static String name(final String declaration) {
+		return declaration.split(" ")[1];
+	}
+
+	private static void defineAst(final String outputDir, final String baseName, final List<String> members,
+			final List<String> types) throws IOException {
 		final String path = outputDir + "/" + baseName + ".java";
 		try (final PrintWriter writer = new PrintWriter(path, "UTF-8")) {
 			writer.println("package com.craftinginterpreters.lox;");
 			writer.println();
-			// writing import here.
+			writer.println("import java.util.List;");
 			writer.println();
 			writer.println("abstract class " + baseName + " {");
+			for (final String member : members) {
+				writer.println("	" + member);
+			}
+			if (!members.isEmpty()) {
+				writer.println();
+			}
 			
 			defineVisitor(writer, baseName, types);
 			
@@ -76,20 +123,32 @@ public class GenerateAst {
 		}
 	}
 	
-	private static void defineType(final PrintWriter writer, final String baseName, final String className, final String fieldList) {
+	private static void defineType(final PrintWriter writer, final String baseName, final String className, final String fieldLists) {
 		writer.println("	static class " + className + " extends " + baseName + " {");
 		
-		// Constructor
-		writer.println("		" + className + "(" + fieldList + ") {");
-		
-		// Store parameters in fields.
-		final String[] fields = fieldList.split(", ");
-		for (final String field : fields) {
-			final String name = field.split(" ")[1];
-			writer.println("			this." + name + " = " + name + ";");
+		// The fields of all the constructors, in the order they first appear.
+		final String[] constructors = fieldLists.split("\\s*\\|\\s*");
+		final List<String> fields = new ArrayList<>();
+		for (final String fieldList : constructors) {
+			for (final String field : fieldList.split(", ")) {
+				if (!fields.contains(field)) fields.add(field);
+			}
+		}
+
+		for (int i = 0; i < constructors.length; i++) {
+			if (i > 0) writer.println();
+			// Constructor
+			writer.println("		" + className + "(" + constructors[i] + ") {");
+			
+			// Store parameters in fields, the fields of the other constructors are null.
+			final List<String> parameters = Arrays.asList(constructors[i].split(", "));
+			for (final String field : fields) {
+				final String name = name(field);
+				writer.println("			this." + name + " = " + (parameters.contains(field) ? name : "null") + ";");
+			}
+			
+			writer.println("		}");
 		}
-		
-		writer.println("		}");
 		
 		// Visitor pattern.
 		writer.println();
@@ -100,13 +159,26 @@ public class GenerateAst {
 		
 		// Fields.
 		writer.println();
+		final String type = baseName + "." + className;
 		for (final String field : fields) {
-			writer.println("		final " + field + ";");
+			defineField(writer, type, "final " + field);
+		}
+		for (final String field : MUTABLE_FIELDS.getOrDefault(type, Collections.<String>emptyList())) {
+			defineField(writer, type, field);
 		}
 		
 		writer.print("	}");
 		writer.println();
 	}
+
+	private static void defineField(final PrintWriter writer, final String type, final String declaration) {
+		final String name = name(declaration.startsWith("final ") ? declaration.substring(6) : declaration);
+		final String comment = COMMENTS.get(type + "." + name);
+		if (comment != null) {
+			writer.println("		// " + comment);
+		}
+		writer.println("		" + declaration + ";");
+	}
 	
 	private static void defineVisitor(final PrintWriter writer, final String baseName, final List<String> types) {
 		writer.println("	interface Visitor<R> {");